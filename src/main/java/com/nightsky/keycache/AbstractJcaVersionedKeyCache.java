@@ -0,0 +1,1472 @@
+package com.nightsky.keycache;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.nightsky.keycache.metrics.KeyCacheMetrics;
+import com.nightsky.keycache.metrics.NoOpKeyCacheMetrics;
+import com.nightsky.keycache.password.KeyPasswordResolver;
+import com.nightsky.keycache.password.ResourceKeyPasswordResolver;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.UnrecoverableKeyException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * Common plumbing for caches of versioned keys backed by a JCA
+ * <code>KeyStore</code>. All cache misses within one refresh interval are
+ * served from a single shared {@link KeyStoreSnapshot}.
+ *
+ * @param <V> the type of versioned key held by the cache
+ * @author Chris
+ */
+public abstract class AbstractJcaVersionedKeyCache<V> implements AutoCloseable {
+
+    private static final String KEY_NAME_PATTERN = "([\\p{Alnum}_-]+)-v(\\d+)";
+
+    private static final long MAX_MISSING_ALIASES = 10000L;
+
+    protected final Logger log;
+
+    private LoadingCache<String, V> cache;
+
+    private Cache<String, Boolean> missingAliases;
+
+    private KeyStoreSnapshotManager snapshots;
+
+    private Pattern compiledKeyNamePattern;
+
+    private Duration expireAfterWrite;
+
+    private Duration negativeCacheDuration;
+
+    private Duration staleGracePeriod;
+
+    private boolean watchKeyStore;
+
+    private KeyStoreFileWatcher keyStoreWatcher;
+
+    private Duration refreshAfterWrite;
+
+    private Executor refreshExecutor;
+
+    private CacheEngine cacheEngine;
+
+    private Ticker ticker;
+
+    private Long maximumSize;
+
+    private Long maximumWeight;
+
+    private Resource keyStoreResource;
+
+    private Resource keyStorePasswordResource;
+
+    private String keyStorePassword;
+
+    private Map<String, Resource> keyPasswords;
+
+    private Map<String, Resource> keyPasswordPatterns;
+
+    private Resource defaultKeyPassword;
+
+    private Duration keyPasswordRefresh;
+
+    private KeyPasswordResolver keyPasswordResolver;
+
+    private volatile char[] resolvedKeyStorePassword;
+
+    private String keyStoreType;
+
+    private String keyNamePattern;
+
+    private boolean warmUp;
+
+    private Executor warmUpExecutor;
+
+    private int warmUpLatestVersions;
+
+    private CompletableFuture<Void> warmUpFuture;
+
+    private KeyCacheMetrics metrics;
+
+    private Executor asyncExecutor;
+
+    private final ConcurrentMap<String, CompletableFuture<V>> pendingLoads;
+
+    protected AbstractJcaVersionedKeyCache() {
+        log = LoggerFactory.getLogger(getClass());
+        keyNamePattern = KEY_NAME_PATTERN;
+        expireAfterWrite = Duration.ofMinutes(30L);
+        cacheEngine = CacheEngine.GUAVA;
+        ticker = Ticker.systemTicker();
+        metrics = NoOpKeyCacheMetrics.INSTANCE;
+        pendingLoads = new ConcurrentHashMap<>();
+    }
+
+    public void initialize() {
+        compiledKeyNamePattern = Pattern.compile(keyNamePattern);
+
+        if ( keyPasswordResolver == null ) {
+            keyPasswordResolver = new ResourceKeyPasswordResolver(
+                keyPasswords,
+                keyPasswordPatterns,
+                defaultKeyPassword,
+                keyPasswordRefresh == null ? expireAfterWrite : keyPasswordRefresh);
+        }
+
+        CacheLoader<String, V> loader = new CacheLoader<String, V>() {
+            @Override
+            public V load(String id) throws Exception {
+                return retrieveVersionedKey(id, false);
+            }
+
+            @Override
+            public Map<String, V> loadAll(Iterable<? extends String> ids) throws Exception {
+                return retrieveVersionedKeys(ids);
+            }
+
+            /**
+             * Completes with <code>null</code> if the alias is gone, or no
+             * longer holds a key of the type held by this cache, so that the
+             * old key is dropped as well.
+             */
+            @Override
+            public ListenableFuture<V> reload(String id, V oldValue) throws Exception {
+                return Futures.immediateFuture(retrieveVersionedKey(id, true));
+            }
+        };
+
+        snapshots = new KeyStoreSnapshotManager(
+            keyStoreResource,
+            keyStoreType,
+            this::resolveKeyStorePassword,
+            compiledKeyNamePattern);
+        snapshots.setMetrics(metrics);
+        snapshots.setTicker(ticker);
+        snapshots.setStaleGracePeriod(staleGracePeriod);
+        snapshots.setSnapshotListener(this::onSnapshotLoaded);
+
+        Executor executor = refreshExecutor == null ? ForkJoinPool.commonPool() : refreshExecutor;
+        if ( refreshAfterWrite != null ) {
+            cache = buildCache(loader, executor);
+            snapshots.setRefreshInterval(refreshAfterWrite);
+        } else {
+            // Refresh the key store well before the keys expire, so that keys
+            // whose entries are unchanged are kept rather than recovered again:
+            cache = buildCache(loader, null);
+            snapshots.setRefreshInterval(expireAfterWrite.dividedBy(2L));
+        }
+        snapshots.setExpireInterval(expireAfterWrite);
+        snapshots.setRefreshExecutor(executor);
+
+        if ( negativeCacheDuration != null ) {
+            missingAliases = CacheBuilder.newBuilder()
+                .expireAfterWrite(negativeCacheDuration)
+                .ticker(ticker)
+                .maximumSize(MAX_MISSING_ALIASES)
+                    .build();
+        }
+
+        metrics.bindCacheStats(cache::stats);
+
+        if ( watchKeyStore )
+            startWatchingKeyStore();
+
+        warmUpFuture = warmUp ? startWarmUp() : CompletableFuture.completedFuture(null);
+    }
+
+    private LoadingCache<String, V> buildCache(CacheLoader<String, V> loader, Executor executor) {
+        if ( cacheEngine == CacheEngine.CAFFEINE ) {
+            return CaffeineCacheFactory.build(
+                loader,
+                expireAfterWrite,
+                refreshAfterWrite,
+                ticker,
+                executor,
+                maximumSize,
+                maximumWeight,
+                this::weighEntry,
+                this::onRemoval);
+        }
+
+        CacheBuilder<String, V> cacheBuilder = CacheBuilder.newBuilder()
+            .expireAfterWrite(expireAfterWrite)
+            .ticker(ticker)
+            .recordStats()
+            .removalListener(this::onRemoval);
+
+        if ( maximumSize != null )
+            cacheBuilder.maximumSize(maximumSize);
+        if ( maximumWeight != null )
+            cacheBuilder.maximumWeight(maximumWeight).weigher(this::weighEntry);
+
+        if ( refreshAfterWrite != null )
+            return cacheBuilder.refreshAfterWrite(refreshAfterWrite).build(reloadingAsync(loader, executor));
+
+        return cacheBuilder.build(loader);
+    }
+
+    /**
+     * Reloads keys on the executor like <code>CacheLoader.asyncReloading</code>
+     * does, dropping the keys whose reload finds nothing. Guava logs a warning
+     * for every refresh that fails, and stores whatever a refresh completes
+     * with even if the key was removed meanwhile, so the refresh completes
+     * with the old key, which is removed once it has been stored.
+     */
+    private CacheLoader<String, V> reloadingAsync(CacheLoader<String, V> loader, Executor executor) {
+        return new CacheLoader<String, V>() {
+            @Override
+            public V load(String id) throws Exception {
+                return loader.load(id);
+            }
+
+            @Override
+            public Map<String, V> loadAll(Iterable<? extends String> ids) throws Exception {
+                return loader.loadAll(ids);
+            }
+
+            @Override
+            public ListenableFuture<V> reload(String id, V oldValue) {
+                SettableFuture<V> reloaded = SettableFuture.create();
+                AtomicBoolean returned = new AtomicBoolean();
+
+                executor.execute(() -> {
+                    try {
+                        V versionedKey = Futures.getDone(loader.reload(id, oldValue));
+                        if ( versionedKey != null ) {
+                            reloaded.set(versionedKey);
+                        } else if ( returned.get() ) {
+                            // The cache stores the old key as the refresh completes:
+                            reloaded.set(oldValue);
+                            cache.asMap().remove(id, oldValue);
+                        } else {
+                            // Run before the cache waits for the refresh, so it
+                            // can only be dropped by failing the refresh:
+                            cache.invalidate(id);
+                            reloaded.setException(
+                                new InvalidCacheLoadException("No key of the expected type found for " + id));
+                        }
+                    } catch (Throwable e) {
+                        reloaded.setException(e);
+                    }
+                });
+
+                returned.set(true);
+                return reloaded;
+            }
+        };
+    }
+
+    private int weighEntry(String alias, V versionedKey) {
+        return weigh(versionedKey);
+    }
+
+    /**
+     * Weighs a key against the maximum weight of the cache. By default every
+     * key weighs the same.
+     *
+     * @param versionedKey The key to weigh
+     * @return the weight of the key, which must not be negative
+     */
+    protected int weigh(V versionedKey) {
+        return 1;
+    }
+
+    /**
+     * Stops watching the key store file, if it is being watched.
+     */
+    @Override
+    public void close() {
+        if ( keyStoreWatcher != null )
+            keyStoreWatcher.close();
+    }
+
+    private void startWatchingKeyStore() {
+        if ( !keyStoreResource.isFile() ) {
+            log.warn("Not watching key store {}: not a file", keyStoreResource);
+            return;
+        }
+
+        try {
+            keyStoreWatcher = new KeyStoreFileWatcher(keyStoreResource.getFile().toPath(), this::onKeyStoreChanged);
+        } catch (Exception e) {
+            log.error("Failed to watch key store {}", keyStoreResource, e);
+        }
+    }
+
+    /**
+     * Reloads the key store after the key store file changed. The cached keys
+     * are brought up to date by {@link #onSnapshotLoaded}. A failed reload is
+     * thrown to the watcher, which tries again on the next change.
+     */
+    private void onKeyStoreChanged() {
+        try {
+            if ( !snapshots.reload() )
+                log.debug("Key store {} was touched but its content is unchanged", keyStoreResource);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to reload key store " + keyStoreResource, e);
+        }
+    }
+
+    /**
+     * Keeps the cached keys in step with a newly loaded snapshot, so that the
+     * cost of a reload depends on how much of the key store changed rather
+     * than on its size. Cached keys whose entries are unchanged are kept for
+     * another full expiry period instead of each being recovered again. Keys
+     * whose aliases are gone are dropped. Keys whose entries were replaced,
+     * and new versions of cached keys, are recovered in the background.
+     * <p>
+     * An entry counts as replaced if its creation date differs between the
+     * two key stores.
+     */
+    private void onSnapshotLoaded(KeyStoreSnapshot previous, KeyStoreSnapshot current) {
+        if ( previous == null || cache == null )
+            return;
+
+        ConcurrentMap<String, V> cached = cache.asMap();
+        if ( current.isContentReused() ) {
+            // Replacing a key with itself restarts its expiry and refresh clocks
+            for (Map.Entry<String, V> entry : cached.entrySet()) {
+                cached.replace(entry.getKey(), entry.getValue(), entry.getValue());
+            }
+            return;
+        }
+
+        KeyStore previousKeyStore = previous.getKeyStore();
+        KeyStore keyStore = current.getKeyStore();
+        KeyAliasIndex previousIndex = previous.getAliasIndex();
+        KeyAliasIndex index = current.getAliasIndex();
+
+        // The cached keys to replace by alias, or null for keys not cached yet:
+        Map<String, V> changedKeys = new LinkedHashMap<>();
+        Set<String> keyNames = new HashSet<>();
+        int kept = 0;
+        int dropped = 0;
+
+        for (Map.Entry<String, V> entry : cached.entrySet()) {
+            String alias = entry.getKey();
+            Matcher m = compiledKeyNamePattern.matcher(alias);
+            if ( !m.matches() )
+                continue;
+
+            keyNames.add(m.group(1));
+            if ( !index.isAlias(alias, m.group(1), Integer.parseInt(m.group(2))) ) {
+                cache.invalidate(alias);
+                dropped++;
+            } else if ( isEntryChanged(previousKeyStore, keyStore, alias) ) {
+                changedKeys.put(alias, entry.getValue());
+            } else {
+                cached.replace(alias, entry.getValue(), entry.getValue());
+                kept++;
+            }
+        }
+
+        // The new current version of a key in use will be asked for next:
+        for (String keyName : keyNames) {
+            Integer latestVersion = index.getLatestVersion(keyName);
+            if ( latestVersion != null && previousIndex.getAlias(keyName, latestVersion) == null )
+                changedKeys.putIfAbsent(index.getLatestAlias(keyName), null);
+        }
+
+        if ( missingAliases != null )
+            missingAliases.invalidateAll();
+
+        log.debug("Key store {} changed: keeping {} cached keys, dropping {}, recovering {}",
+            keyStoreResource, kept, dropped, changedKeys.size());
+
+        if ( !changedKeys.isEmpty() )
+            recoverChangedKeys(current, changedKeys);
+    }
+
+    private boolean isEntryChanged(KeyStore previousKeyStore, KeyStore keyStore, String alias) {
+        try {
+            Date previousDate = previousKeyStore.getCreationDate(alias);
+            return previousDate == null || !previousDate.equals(keyStore.getCreationDate(alias));
+        } catch (KeyStoreException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Recovers keys from a snapshot on the async executor and caches them,
+     * without blocking the thread that loaded the snapshot.
+     * <p>
+     * The cache may have moved on by the time a key is recovered, so a key
+     * only replaces the cached key it was recovered for, or is only added if
+     * none is cached yet. A key recovered from a snapshot that is no longer
+     * current is taken out again, since a newer snapshot may have removed it.
+     */
+    private void recoverChangedKeys(KeyStoreSnapshot snapshot, Map<String, V> changedKeys) {
+        if ( !snapshot.retain() )
+            return;
+
+        KeyStore keyStore = snapshot.getKeyStore();
+        List<CompletableFuture<Void>> recoveries = new ArrayList<>();
+
+        for (Map.Entry<String, V> changedKey : changedKeys.entrySet()) {
+            String alias = changedKey.getKey();
+            V cachedKey = changedKey.getValue();
+            Matcher m = compiledKeyNamePattern.matcher(alias);
+            if ( !m.matches() )
+                continue;
+
+            try {
+                recoveries.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        V versionedKey = recoverVersionedKey(keyStore, alias, m);
+                        if ( versionedKey != null )
+                            installRecoveredKey(snapshot, alias, cachedKey, versionedKey);
+                        else if ( cachedKey != null )
+                            cache.asMap().remove(alias, cachedKey);
+                    } catch (Exception e) {
+                        log.error("Failed to retrieve key {}", alias, e);
+                        metrics.recordLoadFailure(m.group(1), e);
+                        if ( cachedKey != null )
+                            cache.asMap().remove(alias, cachedKey);
+                    }
+                }, getAsyncExecutorOrDefault()));
+            } catch (RuntimeException e) {
+                // Do not keep serving the key that was replaced in the key store:
+                log.error("Failed to schedule recovery of key {}", alias, e);
+                if ( cachedKey != null )
+                    cache.asMap().remove(alias, cachedKey);
+            }
+        }
+
+        CompletableFuture.allOf(recoveries.toArray(new CompletableFuture<?>[0]))
+            .whenComplete((result, e) -> snapshot.release());
+    }
+
+    private void installRecoveredKey(KeyStoreSnapshot snapshot, String alias, V cachedKey, V versionedKey) {
+        ConcurrentMap<String, V> cached = cache.asMap();
+        boolean installed = cachedKey != null
+            ? cached.replace(alias, cachedKey, versionedKey)
+            : cached.putIfAbsent(alias, versionedKey) == null;
+
+        if ( !installed ) {
+            releaseVersionedKey(versionedKey);
+            return;
+        }
+
+        if ( !snapshots.isCurrent(snapshot) )
+            cached.remove(alias, versionedKey);
+    }
+
+    /**
+     * @return a future that completes once the warm-up started by
+     *         {@link #initialize()} has loaded every selected key, or that
+     *         completes exceptionally if any of them failed to load; already
+     *         complete if warm-up is disabled
+     */
+    public CompletableFuture<Void> getWarmUpFuture() {
+        return warmUpFuture;
+    }
+
+    /**
+     * @return <code>true</code> if the warm-up has finished successfully or
+     *         warm-up is disabled
+     */
+    public boolean isWarmedUp() {
+        return warmUpFuture != null && warmUpFuture.isDone() && !warmUpFuture.isCompletedExceptionally();
+    }
+
+    /**
+     * Extracts a versioned key from a loaded key store.
+     *
+     * @param keyStore The loaded key store
+     * @param alias The alias of the key
+     * @param keyPassword The password protecting the key
+     * @param version The version of the key, as parsed from its alias
+     * @return The versioned key, or <code>null</code> if the entry is not of
+     *         the type held by this cache
+     * @throws Exception If the key could not be recovered
+     */
+    protected abstract V createVersionedKey(KeyStore keyStore, String alias, char[] keyPassword, int version)
+        throws Exception;
+
+    /**
+     * Called when a key leaves the cache, whether it expired or was replaced
+     * by a reloaded copy. Callers may still hold the key.
+     *
+     * @param versionedKey The key that was removed
+     */
+    protected void releaseVersionedKey(V versionedKey) {
+    }
+
+    private void onRemoval(RemovalNotification<String, V> notification) {
+        V versionedKey = notification.getValue();
+        if ( versionedKey == null )
+            return;
+
+        // A key replaced with itself to extend its lifetime is still in use
+        if ( notification.getCause() == RemovalCause.REPLACED
+            && cache.asMap().get(notification.getKey()) == versionedKey )
+        {
+            return;
+        }
+
+        releaseVersionedKey(versionedKey);
+    }
+
+    /**
+     * @return the approximate number of keys currently held by the cache
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return <code>true</code> while the key store cannot be loaded and keys
+     *         are being served from the last copy that could
+     */
+    public boolean isServingStaleKeys() {
+        return snapshots.isStale();
+    }
+
+    /**
+     * @return the hit, miss, load and eviction counts of the cache
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the type of key store entry held by this cache
+     */
+    protected abstract Class<? extends KeyStore.Entry> getEntryType();
+
+    /**
+     * @param keyStore The loaded key store
+     * @param alias The alias of an entry
+     * @return <code>true</code> if the entry is of a type held by this cache
+     * @throws KeyStoreException If the key store has not been loaded
+     */
+    protected boolean isCachedEntry(KeyStore keyStore, String alias) throws KeyStoreException {
+        return keyStore.entryInstanceOf(alias, getEntryType());
+    }
+
+    protected V getLatestVersion(String keyName) {
+        String alias;
+        try {
+            // Get the alias of the current version of the key
+            alias = snapshots.getAliasIndex().getLatestAlias(keyName);
+        } catch (Exception e) {
+            log.error("Failed to retrieve key from cache", e);
+            return null;
+        }
+
+        if ( alias == null ) {
+            log.error("Failed to retrieve key from cache: no versions of {} found", keyName);
+            return null;
+        }
+
+        return getByAlias(alias);
+    }
+
+    protected V getVersion(String keyName, Integer keyVersion) {
+        if ( keyVersion == null )
+            return getLatestVersion(keyName);
+
+        return getVersion(keyName, keyVersion.intValue());
+    }
+
+    protected V getVersion(String keyName, int keyVersion) {
+        String alias = resolveAlias(keyName, keyVersion);
+        return alias == null ? null : getByAlias(alias);
+    }
+
+    /**
+     * Checks the alias index for any version of a key, loading the key store
+     * if the index has expired. The entry is not checked to be of a type
+     * held by this cache.
+     *
+     * @return <code>true</code> if the key store holds a version of the key
+     */
+    protected boolean hasLatestVersion(String keyName) {
+        try {
+            return snapshots.getAliasIndex().getLatestAlias(keyName) != null;
+        } catch (Exception e) {
+            log.error("Failed to read key store aliases", e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks the alias index for a version of a key, loading the key store
+     * if the index has expired. The entry is not checked to be of a type
+     * held by this cache.
+     *
+     * @return <code>true</code> if the key store holds the version of the key
+     */
+    protected boolean hasVersion(String keyName, int keyVersion) {
+        try {
+            KeyAliasIndex index = snapshots.getAliasIndex();
+            return index.getAlias(keyName, keyVersion) != null
+                || index.getAliasIgnoringCase(keyName, keyVersion) != null;
+        } catch (Exception e) {
+            log.error("Failed to read key store aliases", e);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the latest versions of several keys. Keys that are not cached yet
+     * are all recovered from a single key store snapshot.
+     *
+     * @return the keys that could be retrieved, by key name
+     */
+    protected Map<String, V> getLatestVersions(Collection<String> keyNames) {
+        Map<String, V> keys = new LinkedHashMap<>();
+
+        try {
+            KeyAliasIndex index = snapshots.getAliasIndex();
+            Map<String, String> aliases = new LinkedHashMap<>();
+
+            for (String keyName : keyNames) {
+                String alias = index.getLatestAlias(keyName);
+                if ( alias == null )
+                    log.error("Failed to retrieve key from cache: no versions of {} found", keyName);
+                else
+                    aliases.put(keyName, alias);
+            }
+
+            getAllByAlias(aliases, keys);
+        } catch (Exception e) {
+            log.error("Failed to retrieve keys from cache", e);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Gets specific versions of several keys; a <code>null</code> version
+     * selects the latest version of that key. Keys that are not cached yet are
+     * all recovered from a single key store snapshot.
+     *
+     * @return the keys that could be retrieved, by key name
+     */
+    protected Map<String, V> getVersions(Map<String, Integer> keyVersions) {
+        List<String> latest = new ArrayList<>();
+        Map<String, String> aliases = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Integer> keyVersion : keyVersions.entrySet()) {
+            if ( keyVersion.getValue() == null )
+                latest.add(keyVersion.getKey());
+            else {
+                String alias = resolveAlias(keyVersion.getKey(), keyVersion.getValue());
+                if ( alias != null )
+                    aliases.put(keyVersion.getKey(), alias);
+            }
+        }
+
+        Map<String, V> keys = latest.isEmpty() ? new LinkedHashMap<>() : getLatestVersions(latest);
+        getAllByAlias(aliases, keys);
+
+        return keys;
+    }
+
+    /**
+     * Lists the versions of a key from the alias index, loading the key store
+     * if the index has expired. The entries are not checked to be of a type
+     * held by this cache.
+     *
+     * @return the versions of the key in ascending order; empty if there are
+     *         none
+     */
+    protected int[] listVersions(String keyName) {
+        try {
+            return snapshots.getAliasIndex().getVersions(keyName);
+        } catch (Exception e) {
+            log.error("Failed to read key store aliases", e);
+            return new int[0];
+        }
+    }
+
+    /**
+     * Gets every version of a key within a range, recovering the versions
+     * that are not cached yet from a single key store snapshot.
+     *
+     * @return the versions that could be retrieved, in ascending order
+     */
+    protected List<V> getVersionRange(String keyName, int fromVersion, int toVersion) {
+        try {
+            return getAllByAlias(snapshots.getAliasIndex().getAliases(keyName, fromVersion, toVersion));
+        } catch (Exception e) {
+            log.error("Failed to retrieve keys from cache", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Gets the most recent versions of a key, recovering the versions that are
+     * not cached yet from a single key store snapshot.
+     *
+     * @return up to <code>count</code> versions that could be retrieved, most
+     *         recent first
+     */
+    protected List<V> getNewestVersions(String keyName, int count) {
+        try {
+            return getAllByAlias(snapshots.getAliasIndex().getLatestAliases(keyName, count));
+        } catch (Exception e) {
+            log.error("Failed to retrieve keys from cache", e);
+            return Collections.emptyList();
+        }
+    }
+
+    private List<V> getAllByAlias(String[] aliases) {
+        Map<String, String> aliasesByAlias = new LinkedHashMap<>();
+        for (String alias : aliases) {
+            aliasesByAlias.put(alias, alias);
+        }
+
+        Map<String, V> keysByAlias = new LinkedHashMap<>();
+        getAllByAlias(aliasesByAlias, keysByAlias);
+
+        List<V> keys = new ArrayList<>(keysByAlias.size());
+        for (String alias : aliases) {
+            V key = keysByAlias.get(alias);
+            if ( key != null )
+                keys.add(key);
+        }
+
+        return keys;
+    }
+
+    private void getAllByAlias(Map<String, String> aliases, Map<String, V> keys) {
+        if ( missingAliases != null )
+            aliases.values().removeIf(alias -> missingAliases.getIfPresent(alias) != null);
+
+        if ( aliases.isEmpty() )
+            return;
+
+        Map<String, V> keysByAlias;
+        try {
+            keysByAlias = cache.getAll(aliases.values());
+        } catch (Exception e) {
+            // Whatever could be loaded has been cached, so return that:
+            log.error("Failed to retrieve keys from cache", e);
+            keysByAlias = cache.getAllPresent(aliases.values());
+        }
+
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            V key = keysByAlias.get(alias.getValue());
+            if ( key != null )
+                keys.put(alias.getKey(), key);
+        }
+    }
+
+    protected CompletableFuture<V> getLatestVersionAsync(String keyName) {
+        KeyAliasIndex index = snapshots.peekAliasIndex();
+
+        // Loading the key store blocks, so leave that to the executor as well:
+        if ( index == null )
+            return CompletableFuture.supplyAsync(() -> getLatestVersion(keyName), getAsyncExecutorOrDefault());
+
+        String alias = index.getLatestAlias(keyName);
+        if ( alias == null ) {
+            log.error("Failed to retrieve key from cache: no versions of {} found", keyName);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return getAsync(alias);
+    }
+
+    protected CompletableFuture<V> getVersionAsync(String keyName, int keyVersion) {
+        String alias = resolveAlias(keyName, keyVersion);
+        return alias == null ? CompletableFuture.completedFuture(null) : getAsync(alias);
+    }
+
+    /**
+     * Completes immediately if the key is cached. Otherwise the key is loaded
+     * on the async executor, and concurrent requests for the same alias share
+     * a single pending load. Each caller gets its own dependent future, so
+     * that completing or cancelling it does not affect the other callers.
+     */
+    private CompletableFuture<V> getAsync(String alias) {
+        if ( isMissing(alias) )
+            return CompletableFuture.completedFuture(null);
+
+        // Peek through the map view, which records no statistics, and then let
+        // the cache record the hit and schedule a refresh if one is due:
+        if ( cache.asMap().get(alias) != null )
+            return CompletableFuture.completedFuture(getByAlias(alias));
+
+        CompletableFuture<V> pending = new CompletableFuture<>();
+        CompletableFuture<V> existing = pendingLoads.putIfAbsent(alias, pending);
+        if ( existing != null )
+            return existing.thenApply(Function.identity());
+
+        try {
+            getAsyncExecutorOrDefault().execute(() -> {
+                try {
+                    pending.complete(getByAlias(alias));
+                } catch (Throwable e) {
+                    // Such as an ExecutionError thrown by the loader:
+                    pending.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    pendingLoads.remove(alias, pending);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Failed to schedule key retrieval", e);
+            pending.complete(null);
+            pendingLoads.remove(alias, pending);
+        }
+
+        return pending.thenApply(Function.identity());
+    }
+
+    private V getByAlias(String alias) {
+        if ( isMissing(alias) )
+            return null;
+
+        try {
+            return cache.get(alias);
+        } catch (InvalidCacheLoadException e) {
+            // Only remember aliases that exist but hold a key of another type;
+            // remembering a version that does not exist yet would hide it once
+            // it is added, and the alias index rejects it in the meantime:
+            if ( !isIndexed(alias) ) {
+                log.error("Failed to retrieve key from cache: {} not found", alias);
+                return null;
+            }
+
+            if ( missingAliases != null )
+                missingAliases.put(alias, Boolean.TRUE);
+
+            log.error("Failed to retrieve key from cache: {} does not hold a key of the expected type", alias);
+            return null;
+        } catch (Exception e) {
+            log.error("Failed to retrieve key from cache", e);
+            return null;
+        }
+    }
+
+    private boolean isIndexed(String alias) {
+        Matcher m = compiledKeyNamePattern.matcher(alias);
+        if ( !m.matches() )
+            return false;
+
+        KeyAliasIndex index = snapshots.getCurrentAliasIndex();
+        return index != null && index.isAlias(alias, m.group(1), Integer.parseInt(m.group(2)));
+    }
+
+    private boolean isMissing(String alias) {
+        return missingAliases != null && missingAliases.getIfPresent(alias) != null;
+    }
+
+    private Executor getAsyncExecutorOrDefault() {
+        return asyncExecutor == null ? ForkJoinPool.commonPool() : asyncExecutor;
+    }
+
+    /**
+     * Resolves the key store alias of a key version against the alias index,
+     * as long as the index can be used without loading the key store. Versions
+     * missing from a usable index are rejected here, since loading them would
+     * only reread the same key store. Key names that differ in case from the
+     * indexed name are found in key stores that ignore the case of aliases.
+     *
+     * @return the alias, or <code>null</code> if the version does not exist
+     */
+    private String resolveAlias(String keyName, int keyVersion) {
+        KeyAliasIndex index = snapshots.peekAliasIndex();
+        if ( index == null )
+            return toAlias(keyName, keyVersion);
+
+        String alias = index.getAlias(keyName, keyVersion);
+        if ( alias != null )
+            return alias;
+
+        // Key stores that ignore the case of aliases are asked for the key as
+        // the caller names it, which is how its password is configured too:
+        if ( index.getAliasIgnoringCase(keyName, keyVersion) != null )
+            return keyName + "-v" + keyVersion;
+
+        log.error("Failed to retrieve key from cache: version {} of {} not found", keyVersion, keyName);
+        return null;
+    }
+
+    /**
+     * Resolves the key store alias of a key version. Aliases of versions that
+     * are already indexed are looked up without allocating; the alias index
+     * is not refreshed here, since the alias of an existing version never
+     * changes.
+     */
+    private String toAlias(String keyName, int keyVersion) {
+        KeyAliasIndex index = snapshots.getCurrentAliasIndex();
+        String alias = index == null ? null : index.getAlias(keyName, keyVersion);
+
+        return alias != null ? alias : keyName + "-v" + keyVersion;
+    }
+
+    private V retrieveVersionedKey(String alias, boolean reload) throws Exception {
+        Matcher m = compiledKeyNamePattern.matcher(alias);
+
+        if ( m.matches() ) {
+            try ( KeyStoreSnapshot snapshot = reload ? snapshots.acquireFresh() : snapshots.acquire() ) {
+                return recoverVersionedKey(snapshot.getKeyStore(), alias, m);
+            } catch (Exception e) {
+                metrics.recordLoadFailure(m.group(1), e);
+                throw e;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Recovers several keys from one key store snapshot, decrypting them in
+     * parallel on the async executor. Keys that cannot be recovered are left
+     * out of the result, which makes the cache fail the batch once the keys
+     * that were recovered have been cached.
+     * <p>
+     * The calling thread recovers every key that no executor thread has
+     * started on yet, so the batch completes even when it is called from a
+     * thread of a busy or single-threaded async executor.
+     */
+    private Map<String, V> retrieveVersionedKeys(Iterable<? extends String> aliases) throws Exception {
+        Map<String, FutureTask<V>> pending = new LinkedHashMap<>();
+        Map<String, V> versionedKeys = new LinkedHashMap<>();
+
+        try ( KeyStoreSnapshot snapshot = snapshots.acquire() ) {
+            KeyStore keyStore = snapshot.getKeyStore();
+            Executor executor = getAsyncExecutorOrDefault();
+
+            for (String alias : aliases) {
+                Matcher m = compiledKeyNamePattern.matcher(alias);
+                if ( !m.matches() )
+                    continue;
+
+                FutureTask<V> recovery = new FutureTask<>(() -> {
+                    try {
+                        return recoverVersionedKey(keyStore, alias, m);
+                    } catch (Exception e) {
+                        log.error("Failed to retrieve key {}", alias, e);
+                        metrics.recordLoadFailure(m.group(1), e);
+                        return null;
+                    }
+                });
+                pending.put(alias, recovery);
+
+                try {
+                    executor.execute(recovery);
+                } catch (RuntimeException e) {
+                    log.debug("Recovering key {} on the calling thread", alias, e);
+                }
+            }
+
+            // A task that has already started or finished does not run again:
+            for (FutureTask<V> recovery : pending.values()) {
+                recovery.run();
+            }
+
+            // Keep the snapshot retained until every key has been recovered:
+            for (Map.Entry<String, FutureTask<V>> entry : pending.entrySet()) {
+                V versionedKey = entry.getValue().get();
+                if ( versionedKey != null )
+                    versionedKeys.put(entry.getKey(), versionedKey);
+            }
+        }
+
+        return versionedKeys;
+    }
+
+    private V recoverVersionedKey(KeyStore keyStore, String alias, Matcher m) throws Exception {
+        char [] keyPassword = keyPasswordResolver.getKeyPassword(alias);
+        if ( keyPassword == null )
+            throw new UnrecoverableKeyException("No password configured for key " + alias);
+
+        try {
+            long startTime = System.nanoTime();
+            V versionedKey = createVersionedKey(keyStore, alias, keyPassword, Integer.parseInt(m.group(2)));
+            metrics.recordKeyDecrypt(m.group(1), System.nanoTime() - startTime);
+
+            return versionedKey;
+        } finally {
+            Arrays.fill(keyPassword, '\0');
+        }
+    }
+
+    private CompletableFuture<Void> startWarmUp() {
+        Executor executor = warmUpExecutor == null ? ForkJoinPool.commonPool() : warmUpExecutor;
+
+        return CompletableFuture.supplyAsync(this::listWarmUpAliases, executor)
+            .thenCompose(aliases -> {
+                CompletableFuture<?>[] loads = aliases.stream()
+                    .map(alias -> CompletableFuture.runAsync(() -> cache.getUnchecked(alias), executor))
+                    .toArray(CompletableFuture[]::new);
+
+                return CompletableFuture.allOf(loads)
+                    .thenRun(() -> log.info("Warmed up {} keys", loads.length));
+            })
+            .whenComplete((result, e) -> {
+                if ( e != null )
+                    log.error("Failed to warm up key cache", e);
+            });
+    }
+
+    private List<String> listWarmUpAliases() {
+        try ( KeyStoreSnapshot snapshot = snapshots.acquire() ) {
+            KeyStore keyStore = snapshot.getKeyStore();
+            KeyAliasIndex index = snapshot.getAliasIndex();
+            List<String> aliases = new ArrayList<>();
+
+            for (String keyName : index.getKeyNames()) {
+                int[] versions = index.getVersions(keyName);
+                int from = warmUpLatestVersions > 0 ? Math.max(0, versions.length - warmUpLatestVersions) : 0;
+
+                for (int i = from; i < versions.length; i++) {
+                    String alias = index.getAlias(keyName, versions[i]);
+                    if ( isCachedEntry(keyStore, alias) )
+                        aliases.add(alias);
+                }
+            }
+
+            return aliases;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Reads the key store password resource once and keeps the password as a
+     * <code>char[]</code> from then on.
+     */
+    private char[] resolveKeyStorePassword() {
+        char [] password = resolvedKeyStorePassword;
+        if ( password == null ) {
+            if ( keyStorePassword != null ) {
+                password = keyStorePassword.toCharArray();
+            } else if ( keyStorePasswordResource != null ) {
+                try {
+                    password = ResourceKeyPasswordResolver.readPassword(keyStorePasswordResource);
+                } catch (Exception e) {
+                    log.error("Failed to load key store password from resource", e);
+                    return null;
+                }
+            } else {
+                return null;
+            }
+
+            resolvedKeyStorePassword = password;
+        }
+
+        return password.clone();
+    }
+
+    /**
+     * @return the keyStoreResource
+     */
+    public Resource getKeyStoreResource() {
+        return keyStoreResource;
+    }
+
+    /**
+     * @param keyStoreResource the keyStoreResource to set
+     */
+    public void setKeyStoreResource(Resource keyStoreResource) {
+        this.keyStoreResource = keyStoreResource;
+    }
+
+    /**
+     * @return the keyStorePasswordResource
+     */
+    public Resource getKeyStorePasswordResource() {
+        return keyStorePasswordResource;
+    }
+
+    /**
+     * @param keyStorePasswordResource the keyStorePasswordResource to set
+     */
+    public void setKeyStorePasswordResource(Resource keyStorePasswordResource) {
+        this.keyStorePasswordResource = keyStorePasswordResource;
+    }
+
+    /**
+     * @return the keyStorePassword
+     */
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    /**
+     * @param keyStorePassword the keyStorePassword to set
+     */
+    public void setKeyStorePassword(String keyStorePassword) {
+        this.keyStorePassword = keyStorePassword;
+    }
+
+    /**
+     * @return the keyPasswords
+     */
+    public Map<String, Resource> getKeyPasswords() {
+        return keyPasswords;
+    }
+
+    /**
+     * @param keyPasswords the keyPasswords to set
+     */
+    public void setKeyPasswords(Map<String, Resource> keyPasswords) {
+        this.keyPasswords = keyPasswords;
+    }
+
+    /**
+     * @return the keyPasswordPatterns
+     */
+    public Map<String, Resource> getKeyPasswordPatterns() {
+        return keyPasswordPatterns;
+    }
+
+    /**
+     * @param keyPasswordPatterns the passwords of aliases that have no entry
+     *        in keyPasswords, by regular expression the whole alias must
+     *        match; patterns are tried in iteration order
+     */
+    public void setKeyPasswordPatterns(Map<String, Resource> keyPasswordPatterns) {
+        this.keyPasswordPatterns = keyPasswordPatterns;
+    }
+
+    /**
+     * @return the defaultKeyPassword
+     */
+    public Resource getDefaultKeyPassword() {
+        return defaultKeyPassword;
+    }
+
+    /**
+     * @param defaultKeyPassword the password of aliases that match neither
+     *        keyPasswords nor keyPasswordPatterns
+     */
+    public void setDefaultKeyPassword(Resource defaultKeyPassword) {
+        this.defaultKeyPassword = defaultKeyPassword;
+    }
+
+    /**
+     * @return the keyPasswordRefresh
+     */
+    public Duration getKeyPasswordRefresh() {
+        return keyPasswordRefresh;
+    }
+
+    /**
+     * @param keyPasswordRefresh the age after which a key password resource
+     *        is read again; defaults to expireAfterWrite
+     */
+    public void setKeyPasswordRefresh(Duration keyPasswordRefresh) {
+        this.keyPasswordRefresh = keyPasswordRefresh;
+    }
+
+    /**
+     * @return the keyPasswordResolver
+     */
+    public KeyPasswordResolver getKeyPasswordResolver() {
+        return keyPasswordResolver;
+    }
+
+    /**
+     * @param keyPasswordResolver the resolver of key passwords; replaces
+     *        keyPasswords, keyPasswordPatterns and defaultKeyPassword
+     */
+    public void setKeyPasswordResolver(KeyPasswordResolver keyPasswordResolver) {
+        this.keyPasswordResolver = keyPasswordResolver;
+    }
+
+    /**
+     * @return the keyStoreType
+     */
+    public String getKeyStoreType() {
+        return keyStoreType;
+    }
+
+    /**
+     * @param keyStoreType the keyStoreType to set
+     */
+    public void setKeyStoreType(String keyStoreType) {
+        this.keyStoreType = keyStoreType;
+    }
+
+    /**
+     * @return the keyNamePattern
+     */
+    public String getKeyNamePattern() {
+        return keyNamePattern;
+    }
+
+    /**
+     * @param keyNamePattern the keyNamePattern to set
+     */
+    public void setKeyNamePattern(String keyNamePattern) {
+        this.keyNamePattern = keyNamePattern;
+    }
+
+    /**
+     * @return the expireAfterWrite
+     */
+    public Duration getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    /**
+     * @param expireAfterWrite the expireAfterWrite to set
+     */
+    public void setExpireAfterWrite(Duration expireAfterWrite) {
+        this.expireAfterWrite = expireAfterWrite;
+    }
+
+    /**
+     * @return the negativeCacheDuration
+     */
+    public Duration getNegativeCacheDuration() {
+        return negativeCacheDuration;
+    }
+
+    /**
+     * @param negativeCacheDuration how long an alias that holds no key of the
+     *        type held by this cache is remembered, so that repeated requests
+     *        for it do not reload it; <code>null</code> disables negative
+     *        caching
+     */
+    public void setNegativeCacheDuration(Duration negativeCacheDuration) {
+        this.negativeCacheDuration = negativeCacheDuration;
+    }
+
+    /**
+     * @return the staleGracePeriod
+     */
+    public Duration getStaleGracePeriod() {
+        return staleGracePeriod;
+    }
+
+    /**
+     * @param staleGracePeriod how long past its expiry the last good copy of
+     *        the key store keeps serving keys while the key store cannot be
+     *        loaded; <code>null</code> disables serving stale keys
+     */
+    public void setStaleGracePeriod(Duration staleGracePeriod) {
+        this.staleGracePeriod = staleGracePeriod;
+    }
+
+    /**
+     * @return the watchKeyStore
+     */
+    public boolean isWatchKeyStore() {
+        return watchKeyStore;
+    }
+
+    /**
+     * @param watchKeyStore whether to watch a file-based key store and reload
+     *        it, and the cached keys, as soon as the file changes; allows long
+     *        expiry durations without delaying key rotation
+     */
+    public void setWatchKeyStore(boolean watchKeyStore) {
+        this.watchKeyStore = watchKeyStore;
+    }
+
+    /**
+     * @return the refreshAfterWrite
+     */
+    public Duration getRefreshAfterWrite() {
+        return refreshAfterWrite;
+    }
+
+    /**
+     * @param refreshAfterWrite the age after which a cached key is reloaded
+     *        in the background while the current value keeps being served;
+     *        <code>null</code> disables refreshing, leaving expireAfterWrite
+     *        as the only way keys are reloaded. The key store itself is then
+     *        refreshed in the background at half of expireAfterWrite, which
+     *        keeps the keys in use cached for as long as they are unchanged
+     */
+    public void setRefreshAfterWrite(Duration refreshAfterWrite) {
+        this.refreshAfterWrite = refreshAfterWrite;
+    }
+
+    /**
+     * @return the refreshExecutor
+     */
+    public Executor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * @param refreshExecutor the executor that reloads keys and the key store
+     *        in the background; defaults to the common fork-join pool
+     */
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * @return the ticker
+     */
+    public Ticker getTicker() {
+        return ticker;
+    }
+
+    /**
+     * @param ticker the time source that key and key store expiry is measured
+     *        with; defaults to the system ticker, and is only replaced in tests
+     */
+    public void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * @return the cacheEngine
+     */
+    public CacheEngine getCacheEngine() {
+        return cacheEngine;
+    }
+
+    /**
+     * @param cacheEngine the cache implementation that holds the recovered
+     *        keys
+     */
+    public void setCacheEngine(CacheEngine cacheEngine) {
+        this.cacheEngine = cacheEngine;
+    }
+
+    /**
+     * @return the maximumSize
+     */
+    public Long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @param maximumSize the number of keys above which the cache evicts
+     *        keys before they expire; <code>null</code> leaves the number of
+     *        keys unbounded. Cannot be combined with a maximum weight
+     */
+    public void setMaximumSize(Long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @return the maximumWeight
+     */
+    public Long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * @param maximumWeight the total weight above which the cache evicts
+     *        keys before they expire, with each key weighed by the size of
+     *        its key material in bytes; <code>null</code> leaves the weight
+     *        unbounded. Cannot be combined with a maximum size
+     */
+    public void setMaximumWeight(Long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * @return the warmUp
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * @param warmUp whether to load the keys in the key store when the cache
+     *        is initialized
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * @return the warmUpExecutor
+     */
+    public Executor getWarmUpExecutor() {
+        return warmUpExecutor;
+    }
+
+    /**
+     * @param warmUpExecutor the executor that loads keys during warm-up;
+     *        defaults to the common fork-join pool
+     */
+    public void setWarmUpExecutor(Executor warmUpExecutor) {
+        this.warmUpExecutor = warmUpExecutor;
+    }
+
+    /**
+     * @return the warmUpLatestVersions
+     */
+    public int getWarmUpLatestVersions() {
+        return warmUpLatestVersions;
+    }
+
+    /**
+     * @param warmUpLatestVersions the number of most recent versions of each
+     *        key to load during warm-up; zero or less loads every version
+     */
+    public void setWarmUpLatestVersions(int warmUpLatestVersions) {
+        this.warmUpLatestVersions = warmUpLatestVersions;
+    }
+
+    /**
+     * @return the metrics
+     */
+    public KeyCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics the metrics that cache statistics, key store loads and
+     *        key loads are reported to
+     */
+    public void setMetrics(KeyCacheMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the asyncExecutor
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * @param asyncExecutor the executor that loads keys requested through the
+     *        asynchronous methods; defaults to the common fork-join pool
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+}
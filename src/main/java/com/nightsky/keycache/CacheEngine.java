@@ -0,0 +1,23 @@
+package com.nightsky.keycache;
+
+/**
+ * The cache implementation that holds the recovered keys.
+ *
+ * @author Chris
+ */
+public enum CacheEngine {
+
+    /**
+     * Guava's segmented <code>LoadingCache</code>, which evicts the least
+     * recently used keys of a segment once a size or weight bound is reached.
+     */
+    GUAVA,
+
+    /**
+     * Caffeine, which evicts by the W-TinyLFU policy and avoids Guava's
+     * segment locks. Requires <code>com.github.ben-manes.caffeine:caffeine</code>
+     * and <code>com.github.ben-manes.caffeine:guava</code> on the classpath.
+     */
+    CAFFEINE
+
+}
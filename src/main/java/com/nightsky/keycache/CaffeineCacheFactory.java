@@ -0,0 +1,96 @@
+package com.nightsky.keycache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.guava.CaffeinatedGuava;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.Futures;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Builds Caffeine caches behind Guava's <code>LoadingCache</code> interface,
+ * so that the rest of the key caches do not depend on which engine is in use.
+ * Kept apart from {@link AbstractJcaVersionedKeyCache} so that Caffeine is
+ * only needed on the classpath when it is selected.
+ *
+ * @author Chris
+ */
+class CaffeineCacheFactory {
+
+    private CaffeineCacheFactory() {
+    }
+
+    static <V> LoadingCache<String, V> build(
+        CacheLoader<String, V> loader,
+        Duration expireAfterWrite,
+        Duration refreshAfterWrite,
+        Ticker ticker,
+        Executor executor,
+        Long maximumSize,
+        Long maximumWeight,
+        Weigher<String, V> weigher,
+        RemovalListener<String, V> removalListener)
+    {
+        Caffeine<String, V> builder = Caffeine.newBuilder()
+            .expireAfterWrite(expireAfterWrite)
+            .recordStats()
+            .ticker(ticker::read)
+            .removalListener((String key, V value, com.github.benmanes.caffeine.cache.RemovalCause cause) ->
+                removalListener.onRemoval(RemovalNotification.create(key, value, RemovalCause.valueOf(cause.name()))));
+
+        if ( refreshAfterWrite != null )
+            builder.refreshAfterWrite(refreshAfterWrite);
+        if ( executor != null )
+            builder.executor(executor);
+        if ( maximumSize != null )
+            builder.maximumSize(maximumSize);
+        if ( maximumWeight != null )
+            builder.maximumWeight(maximumWeight).weigher(weigher::weigh);
+
+        return CaffeinatedGuava.build(builder, new DroppingCacheLoader<>(loader));
+    }
+
+    /**
+     * Adapts a Guava <code>CacheLoader</code> as Caffeine's adapter does, but
+     * lets a reload that completes with <code>null</code> drop the entry, as
+     * Caffeine's own loaders can, instead of failing the refresh, which
+     * Caffeine logs as a warning.
+     */
+    private static class DroppingCacheLoader<V> implements com.github.benmanes.caffeine.cache.CacheLoader<String, V> {
+
+        private final CacheLoader<String, V> loader;
+
+        private DroppingCacheLoader(CacheLoader<String, V> loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public V load(String key) throws Exception {
+            V value = loader.load(key);
+            if ( value == null )
+                throw new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+
+            return value;
+        }
+
+        @Override
+        public Map<String, V> loadAll(Iterable<? extends String> keys) throws Exception {
+            return loader.loadAll(keys);
+        }
+
+        @Override
+        public V reload(String key, V oldValue) throws Exception {
+            return Futures.getDone(loader.reload(key, oldValue));
+        }
+
+    }
+
+}
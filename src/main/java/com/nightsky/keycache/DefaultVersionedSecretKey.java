@@ -1,40 +1,158 @@
-package com.nightsky.keycache;
-
-import javax.crypto.SecretKey;
-
-/**
- *
- * @author Chris
- */
-public class DefaultVersionedSecretKey implements VersionedSecretKey {
-
-    private final int version;
-
-    private final SecretKey secretKey;
-
-    public DefaultVersionedSecretKey(SecretKey secretKey, int version) {
-        this.secretKey = secretKey;
-        this.version = version;
-    }
-
-    @Override
-    public int getVersion() {
-        return this.version;
-    }
-
-    @Override
-    public String getAlgorithm() {
-        return secretKey.getAlgorithm();
-    }
-
-    @Override
-    public String getFormat() {
-        return secretKey.getFormat();
-    }
-
-    @Override
-    public byte[] getEncoded() {
-        return secretKey.getEncoded();
-    }
-
-}
+package com.nightsky.keycache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.crypto.SecretKey;
+import javax.security.auth.DestroyFailedException;
+
+/**
+ *
+ * @author Chris
+ */
+public class DefaultVersionedSecretKey implements VersionedSecretKey {
+
+    private final int version;
+
+    private final SecretKey secretKey;
+
+    private final String algorithm;
+
+    private final String format;
+
+    /**
+     * The direct buffer holding the key material when it is kept off-heap, or
+     * <code>null</code> if this instance delegates to the recovered key.
+     */
+    private final ByteBuffer keyMaterial;
+
+    private volatile boolean destroyed;
+
+    public DefaultVersionedSecretKey(SecretKey secretKey, int version) {
+        this(secretKey, version, false);
+    }
+
+    /**
+     * @param secretKey The secret key recovered from the key store
+     * @param version The version of the key
+     * @param offHeap Whether to copy the key material into a direct buffer,
+     *        which is zeroed when the key is destroyed, instead of delegating
+     *        to the recovered key. This does not keep the key material off
+     *        the heap: the recovered key keeps its own copy until it is
+     *        garbage collected, and providers that are handed this instance
+     *        take further copies through {@link #getEncoded()}.
+     */
+    public DefaultVersionedSecretKey(SecretKey secretKey, int version, boolean offHeap) {
+        this.version = version;
+        this.algorithm = secretKey.getAlgorithm();
+        this.format = secretKey.getFormat();
+
+        if ( offHeap ) {
+            byte [] encoded = secretKey.getEncoded();
+            this.secretKey = null;
+            this.keyMaterial = ByteBuffer.allocateDirect(encoded.length);
+            for (int i = 0; i < encoded.length; i++) {
+                keyMaterial.put(i, encoded[i]);
+            }
+            Arrays.fill(encoded, (byte) 0);
+        } else {
+            this.secretKey = secretKey;
+            this.keyMaterial = null;
+        }
+    }
+
+    @Override
+    public int getVersion() {
+        return this.version;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        checkDestroyed();
+        if ( secretKey != null )
+            return secretKey.getEncoded();
+
+        byte [] encoded = new byte[getEncodedLength()];
+        getEncoded(encoded, 0);
+        return encoded;
+    }
+
+    @Override
+    public int getEncodedLength() {
+        checkDestroyed();
+        if ( keyMaterial == null )
+            return VersionedSecretKey.super.getEncodedLength();
+
+        return keyMaterial.capacity();
+    }
+
+    @Override
+    public int getEncoded(byte[] dest, int offset) {
+        checkDestroyed();
+        if ( keyMaterial == null )
+            return VersionedSecretKey.super.getEncoded(dest, offset);
+
+        int length = keyMaterial.capacity();
+        keyMaterial.duplicate().get(dest, offset, length);
+        return length;
+    }
+
+    @Override
+    public int getEncoded(ByteBuffer dest) {
+        checkDestroyed();
+        if ( keyMaterial == null )
+            return VersionedSecretKey.super.getEncoded(dest);
+
+        dest.put(keyMaterial.duplicate());
+        return keyMaterial.capacity();
+    }
+
+    /**
+     * Zeroes the off-heap key material held by this instance. A key that
+     * delegates to the recovered key holds no key material of its own, and
+     * can only be destroyed if the recovered key can.
+     *
+     * @throws DestroyFailedException If the recovered key could not be
+     *         destroyed, in which case this key is left as it was
+     */
+    @Override
+    public void destroy() throws DestroyFailedException {
+        if ( keyMaterial != null ) {
+            for (int i = 0; i < keyMaterial.capacity(); i++) {
+                keyMaterial.put(i, (byte) 0);
+            }
+        } else {
+            secretKey.destroy();
+        }
+
+        destroyed = true;
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * @return the secret key recovered from the key store, or this instance
+     *         if the key material is kept off-heap
+     */
+    protected SecretKey getSecretKey() {
+        return secretKey != null ? secretKey : this;
+    }
+
+    private void checkDestroyed() {
+        if ( destroyed )
+            throw new IllegalStateException("Key has been destroyed");
+    }
+
+}
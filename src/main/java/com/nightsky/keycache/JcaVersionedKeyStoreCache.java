@@ -0,0 +1,323 @@
+package com.nightsky.keycache;
+
+import com.nightsky.keycache.builder.JcaVersionedKeyStoreCacheBuilder;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import javax.crypto.SecretKey;
+import javax.security.auth.DestroyFailedException;
+
+/**
+ * Caches both the secret keys and the key pairs of one key store. Compared to
+ * a {@link JcaVersionedSecretKeyCache} and a {@link JcaVersionedKeyPairCache}
+ * pointed at the same key store, the key store is loaded, integrity checked
+ * and scanned once per refresh instead of twice, and both kinds of keys share
+ * one cache and one refresh schedule.
+ * <p>
+ * Keys are retrieved through the {@link #asSecretKeyCache()} and
+ * {@link #asKeyPairCache()} views. Looking up a key through the view of the
+ * other kind returns <code>null</code>.
+ *
+ * @author Chris
+ */
+public class JcaVersionedKeyStoreCache extends AbstractJcaVersionedKeyCache<Object> {
+
+    private final VersionedSecretKeyCache secretKeyView;
+
+    private final VersionedKeyPairCache keyPairView;
+
+    private boolean pooledCryptoInstances;
+
+    private int maxIdleCryptoInstances = 8;
+
+    private boolean offHeapKeyMaterial;
+
+    public JcaVersionedKeyStoreCache() {
+        this.secretKeyView = new SecretKeyView();
+        this.keyPairView = new KeyPairView();
+    }
+
+    public static JcaVersionedKeyStoreCacheBuilder builder() {
+        return new JcaVersionedKeyStoreCacheBuilder();
+    }
+
+    /**
+     * @return a view of the secret keys held by this cache
+     */
+    public VersionedSecretKeyCache asSecretKeyCache() {
+        return secretKeyView;
+    }
+
+    /**
+     * @return a view of the key pairs held by this cache
+     */
+    public VersionedKeyPairCache asKeyPairCache() {
+        return keyPairView;
+    }
+
+    @Override
+    protected Class<? extends KeyStore.Entry> getEntryType() {
+        return KeyStore.Entry.class;
+    }
+
+    @Override
+    protected boolean isCachedEntry(KeyStore keyStore, String alias) throws KeyStoreException {
+        return keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class)
+            || keyStore.entryInstanceOf(alias, KeyStore.PrivateKeyEntry.class);
+    }
+
+    @Override
+    protected Object createVersionedKey(KeyStore keyStore, String alias, char[] keyPassword, int version)
+        throws Exception
+    {
+        Key key = keyStore.getKey(alias, keyPassword);
+
+        if ( key instanceof SecretKey ) {
+            return JcaVersionedSecretKeyCache.createSecretKey(
+                (SecretKey) key, version, pooledCryptoInstances, maxIdleCryptoInstances, offHeapKeyMaterial);
+        }
+
+        if ( key instanceof PrivateKey )
+            return JcaVersionedKeyPairCache.createKeyPair(keyStore, alias, (PrivateKey) key, version);
+
+        return null;
+    }
+
+    @Override
+    protected int weigh(Object versionedKey) {
+        if ( versionedKey instanceof VersionedKeyPair )
+            return JcaVersionedKeyPairCache.weighKeyPair((VersionedKeyPair) versionedKey);
+
+        return ((VersionedSecretKey) versionedKey).getEncodedLength();
+    }
+
+    @Override
+    protected void releaseVersionedKey(Object versionedKey) {
+        if ( !(versionedKey instanceof VersionedSecretKey) )
+            return;
+
+        try {
+            JcaVersionedSecretKeyCache.releaseSecretKey((VersionedSecretKey) versionedKey, offHeapKeyMaterial);
+        } catch (DestroyFailedException e) {
+            log.error("Failed to destroy evicted key", e);
+        }
+    }
+
+    private <T> T as(Class<T> type, String keyName, Object versionedKey) {
+        if ( versionedKey == null || type.isInstance(versionedKey) )
+            return type.cast(versionedKey);
+
+        log.error("Failed to retrieve key from cache: {} is not a {}", keyName, type.getSimpleName());
+        return null;
+    }
+
+    private <T> Map<String, T> as(Class<T> type, Map<String, Object> versionedKeys) {
+        Map<String, T> keys = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> versionedKey : versionedKeys.entrySet()) {
+            T key = as(type, versionedKey.getKey(), versionedKey.getValue());
+            if ( key != null )
+                keys.put(versionedKey.getKey(), key);
+        }
+
+        return keys;
+    }
+
+    private <T> List<T> as(Class<T> type, String keyName, List<Object> versionedKeys) {
+        List<T> keys = new ArrayList<>(versionedKeys.size());
+        for (Object versionedKey : versionedKeys) {
+            T key = as(type, keyName, versionedKey);
+            if ( key != null )
+                keys.add(key);
+        }
+
+        return keys;
+    }
+
+    /**
+     * @return the pooledCryptoInstances
+     */
+    public boolean isPooledCryptoInstances() {
+        return pooledCryptoInstances;
+    }
+
+    /**
+     * @param pooledCryptoInstances whether secret keys are handed out as
+     *        {@link PooledVersionedSecretKey} instances; key pairs are never
+     *        pooled
+     */
+    public void setPooledCryptoInstances(boolean pooledCryptoInstances) {
+        this.pooledCryptoInstances = pooledCryptoInstances;
+    }
+
+    /**
+     * @return the maxIdleCryptoInstances
+     */
+    public int getMaxIdleCryptoInstances() {
+        return maxIdleCryptoInstances;
+    }
+
+    /**
+     * @param maxIdleCryptoInstances the number of idle instances kept per
+     *        pooled secret key and algorithm; defaults to 8
+     */
+    public void setMaxIdleCryptoInstances(int maxIdleCryptoInstances) {
+        this.maxIdleCryptoInstances = maxIdleCryptoInstances;
+    }
+
+    /**
+     * @return the offHeapKeyMaterial
+     */
+    public boolean isOffHeapKeyMaterial() {
+        return offHeapKeyMaterial;
+    }
+
+    /**
+     * @param offHeapKeyMaterial whether cached secret keys keep their key
+     *        material off-heap, as with
+     *        {@link JcaVersionedSecretKeyCache#setOffHeapKeyMaterial(boolean)};
+     *        key pairs stay on-heap
+     */
+    public void setOffHeapKeyMaterial(boolean offHeapKeyMaterial) {
+        this.offHeapKeyMaterial = offHeapKeyMaterial;
+    }
+
+    private class SecretKeyView implements VersionedSecretKeyCache {
+
+        @Override
+        public VersionedSecretKey getKey(String keyName) {
+            return as(VersionedSecretKey.class, keyName, getLatestVersion(keyName));
+        }
+
+        @Override
+        public VersionedSecretKey getKey(String keyName, Integer keyVersion) {
+            return as(VersionedSecretKey.class, keyName, getVersion(keyName, keyVersion));
+        }
+
+        @Override
+        public VersionedSecretKey getKey(String keyName, int keyVersion) {
+            return as(VersionedSecretKey.class, keyName, getVersion(keyName, keyVersion));
+        }
+
+        @Override
+        public Map<String, VersionedSecretKey> getKeys(Collection<String> keyNames) {
+            return as(VersionedSecretKey.class, getLatestVersions(keyNames));
+        }
+
+        @Override
+        public Map<String, VersionedSecretKey> getKeys(Map<String, Integer> keyVersions) {
+            return as(VersionedSecretKey.class, getVersions(keyVersions));
+        }
+
+        @Override
+        public int[] listVersions(String keyName) {
+            return JcaVersionedKeyStoreCache.this.listVersions(keyName);
+        }
+
+        @Override
+        public List<VersionedSecretKey> getKeys(String keyName, int fromVersion, int toVersion) {
+            return as(VersionedSecretKey.class, keyName, getVersionRange(keyName, fromVersion, toVersion));
+        }
+
+        @Override
+        public List<VersionedSecretKey> getLatestKeys(String keyName, int count) {
+            return as(VersionedSecretKey.class, keyName, getNewestVersions(keyName, count));
+        }
+
+        @Override
+        public boolean containsKey(String keyName) {
+            return hasLatestVersion(keyName);
+        }
+
+        @Override
+        public boolean containsKey(String keyName, int keyVersion) {
+            return hasVersion(keyName, keyVersion);
+        }
+
+        @Override
+        public CompletableFuture<VersionedSecretKey> getKeyAsync(String keyName) {
+            return getLatestVersionAsync(keyName)
+                .thenApply(versionedKey -> as(VersionedSecretKey.class, keyName, versionedKey));
+        }
+
+        @Override
+        public CompletableFuture<VersionedSecretKey> getKeyAsync(String keyName, int keyVersion) {
+            return getVersionAsync(keyName, keyVersion)
+                .thenApply(versionedKey -> as(VersionedSecretKey.class, keyName, versionedKey));
+        }
+
+    }
+
+    private class KeyPairView implements VersionedKeyPairCache {
+
+        @Override
+        public VersionedKeyPair getKeyPair(String keyPairName) {
+            return as(VersionedKeyPair.class, keyPairName, getLatestVersion(keyPairName));
+        }
+
+        @Override
+        public VersionedKeyPair getKeyPair(String keyPairName, Integer keyVersion) {
+            return as(VersionedKeyPair.class, keyPairName, getVersion(keyPairName, keyVersion));
+        }
+
+        @Override
+        public VersionedKeyPair getKeyPair(String keyPairName, int keyVersion) {
+            return as(VersionedKeyPair.class, keyPairName, getVersion(keyPairName, keyVersion));
+        }
+
+        @Override
+        public Map<String, VersionedKeyPair> getKeyPairs(Collection<String> keyPairNames) {
+            return as(VersionedKeyPair.class, getLatestVersions(keyPairNames));
+        }
+
+        @Override
+        public Map<String, VersionedKeyPair> getKeyPairs(Map<String, Integer> keyVersions) {
+            return as(VersionedKeyPair.class, getVersions(keyVersions));
+        }
+
+        @Override
+        public int[] listVersions(String keyPairName) {
+            return JcaVersionedKeyStoreCache.this.listVersions(keyPairName);
+        }
+
+        @Override
+        public List<VersionedKeyPair> getKeyPairs(String keyPairName, int fromVersion, int toVersion) {
+            return as(VersionedKeyPair.class, keyPairName, getVersionRange(keyPairName, fromVersion, toVersion));
+        }
+
+        @Override
+        public List<VersionedKeyPair> getLatestKeyPairs(String keyPairName, int count) {
+            return as(VersionedKeyPair.class, keyPairName, getNewestVersions(keyPairName, count));
+        }
+
+        @Override
+        public boolean containsKeyPair(String keyPairName) {
+            return hasLatestVersion(keyPairName);
+        }
+
+        @Override
+        public boolean containsKeyPair(String keyPairName, int keyVersion) {
+            return hasVersion(keyPairName, keyVersion);
+        }
+
+        @Override
+        public CompletableFuture<VersionedKeyPair> getKeyPairAsync(String keyPairName) {
+            return getLatestVersionAsync(keyPairName)
+                .thenApply(versionedKey -> as(VersionedKeyPair.class, keyPairName, versionedKey));
+        }
+
+        @Override
+        public CompletableFuture<VersionedKeyPair> getKeyPairAsync(String keyPairName, int keyVersion) {
+            return getVersionAsync(keyPairName, keyVersion)
+                .thenApply(versionedKey -> as(VersionedKeyPair.class, keyPairName, versionedKey));
+        }
+
+    }
+
+}
@@ -1,249 +1,199 @@
-package com.nightsky.keycache;
-
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Iterators;
-import com.google.common.io.ByteStreams;
-import com.nightsky.keycache.builder.JcaVersionedSecretKeyCacheBuilder;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-import java.security.KeyStore;
-import java.time.Duration;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import javax.crypto.SecretKey;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
-
-/**
- *
- * @author Chris
- */
-public class JcaVersionedSecretKeyCache implements VersionedSecretKeyCache {
-
-    private static final String KEY_NAME_PATTERN = "([\\p{Alnum}_-]+)-v(\\d+)";
-
-    private final Logger log;
-
-    private LoadingCache<String, VersionedSecretKey> cache;
-
-    private Duration expireAfterWrite;
-
-    private Resource keyStoreResource;
-
-    private Resource keyStorePasswordResource;
-
-    private String keyStorePassword;
-
-    private Map<String, Resource> keyPasswords;
-
-    private String keyStoreType;
-
-    private String keyNamePattern;
-
-    public JcaVersionedSecretKeyCache() {
-        log = LoggerFactory.getLogger(getClass());
-        keyNamePattern = KEY_NAME_PATTERN;
-        expireAfterWrite = Duration.ofMinutes(30L);
-    }
-
-    public void initialize() {
-        CacheLoader<String, VersionedSecretKey> loader = new CacheLoader<String, VersionedSecretKey>() {
-            @Override
-            public VersionedSecretKey load(String id) throws Exception {
-                return retrieveVersionedSecretKey(id);
-            }
-        };
-
-        cache = CacheBuilder.newBuilder().expireAfterWrite(expireAfterWrite).build(loader);
-    }
-
-    public static JcaVersionedSecretKeyCacheBuilder builder() {
-        return new JcaVersionedSecretKeyCacheBuilder();
-    }
-
-    @Override
-    public VersionedSecretKey getKey(String keyName) {
-        checkKeyStorePassword();
-
-        try ( InputStream keyStoreInputStream = keyStoreResource.getInputStream() )
-        {
-            Pattern pattern = Pattern.compile(keyNamePattern);
-            KeyStore keyStore = KeyStore.getInstance(keyStoreType);
-            keyStore.load(keyStoreInputStream, keyStorePassword.toCharArray());
-            Iterator<String> aliases = Iterators.forEnumeration(keyStore.aliases());
-
-            // Get the current version number of the key
-            int currentVersion = -1;
-            while ( aliases.hasNext() ) {
-                String alias = aliases.next();
-                Matcher m = pattern.matcher(alias);
-                if ( m.matches() ) {
-                    String name = m.group(1);
-                    int version = Integer.parseInt(m.group(2));
-                    if ( name.equals(keyName) && version > currentVersion ) {
-                        currentVersion = version;
-                    }
-                }
-            }
-
-            return cache.get(String.format("%s-v%d", keyName, currentVersion));
-        } catch (Exception e) {
-            log.error("Failed to retrieve key from cache", e);
-            return null;
-        }
-    }
-
-    @Override
-    public VersionedSecretKey getKey(String keyName, Integer keyVersion) {
-        if ( keyVersion == null )
-            return getKey(keyName);
-
-        try {
-            return cache.get(String.format("%s-v%d", keyName, keyVersion));
-        } catch (Exception e) {
-            log.error("Failed to retrieve key from cache", e);
-            return null;
-        }
-    }
-
-    private VersionedSecretKey retrieveVersionedSecretKey(String alias) throws Exception {
-        checkKeyStorePassword();
-
-        Pattern pattern = Pattern.compile(keyNamePattern);
-        Matcher m = pattern.matcher(alias);
-
-        if ( m.matches() ) {
-            try ( InputStream keyStoreInputStream = keyStoreResource.getInputStream();
-                  InputStream keyPasswordInputStream = keyPasswords.get(alias).getInputStream() )
-            {
-                KeyStore keyStore = KeyStore.getInstance(keyStoreType);
-                keyStore.load(keyStoreInputStream, keyStorePassword.toCharArray());
-
-                String keyPassword = new String(
-                    ByteStreams.toByteArray(keyPasswordInputStream),
-                    StandardCharsets.UTF_8);
-
-                return new DefaultVersionedSecretKey((SecretKey) keyStore.getKey(alias, keyPassword.toCharArray()), Integer.parseInt(m.group(2)));
-            } catch (Exception e) {
-                throw e;
-            }
-        }
-
-        return null;
-    }
-
-    private void checkKeyStorePassword() {
-        if ( keyStorePassword != null || keyStorePasswordResource == null )
-            return;
-
-        try ( InputStream is = keyStorePasswordResource.getInputStream() ) {
-            keyStorePassword = new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            log.error("Failed to load key store password from resource", e);
-        }
-    }
-
-    /**
-     * @return the keyStoreResource
-     */
-    public Resource getKeyStoreResource() {
-        return keyStoreResource;
-    }
-
-    /**
-     * @param keyStoreResource the keyStoreResource to set
-     */
-    public void setKeyStoreResource(Resource keyStoreResource) {
-        this.keyStoreResource = keyStoreResource;
-    }
-
-    /**
-     * @return the keyStorePasswordResource
-     */
-    public Resource getKeyStorePasswordResource() {
-        return keyStorePasswordResource;
-    }
-
-    /**
-     * @param keyStorePasswordResource the keyStorePasswordResource to set
-     */
-    public void setKeyStorePasswordResource(Resource keyStorePasswordResource) {
-        this.keyStorePasswordResource = keyStorePasswordResource;
-    }
-
-    /**
-     * @return the keyStorePassword
-     */
-    public String getKeyStorePassword() {
-        return keyStorePassword;
-    }
-
-    /**
-     * @param keyStorePassword the keyStorePassword to set
-     */
-    public void setKeyStorePassword(String keyStorePassword) {
-        this.keyStorePassword = keyStorePassword;
-    }
-
-    /**
-     * @return the keyPasswords
-     */
-    public Map<String, Resource> getKeyPasswords() {
-        return keyPasswords;
-    }
-
-    /**
-     * @param keyPasswords the keyPasswords to set
-     */
-    public void setKeyPasswords(Map<String, Resource> keyPasswords) {
-        this.keyPasswords = keyPasswords;
-    }
-
-    /**
-     * @return the keyStoreType
-     */
-    public String getKeyStoreType() {
-        return keyStoreType;
-    }
-
-    /**
-     * @param keyStoreType the keyStoreType to set
-     */
-    public void setKeyStoreType(String keyStoreType) {
-        this.keyStoreType = keyStoreType;
-    }
-
-    /**
-     * @return the keyNamePattern
-     */
-    public String getKeyNamePattern() {
-        return keyNamePattern;
-    }
-
-    /**
-     * @param keyNamePattern the keyNamePattern to set
-     */
-    public void setKeyNamePattern(String keyNamePattern) {
-        this.keyNamePattern = keyNamePattern;
-    }
-
-    /**
-     * @return the expireAfterWrite
-     */
-    public Duration getExpireAfterWrite() {
-        return expireAfterWrite;
-    }
-
-    /**
-     * @param expireAfterWrite the expireAfterWrite to set
-     */
-    public void setExpireAfterWrite(Duration expireAfterWrite) {
-        this.expireAfterWrite = expireAfterWrite;
-    }
-
-}
+package com.nightsky.keycache;
+
+import com.nightsky.keycache.builder.JcaVersionedSecretKeyCacheBuilder;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import javax.crypto.SecretKey;
+import javax.security.auth.DestroyFailedException;
+
+/**
+ *
+ * @author Chris
+ */
+public class JcaVersionedSecretKeyCache
+    extends AbstractJcaVersionedKeyCache<VersionedSecretKey>
+    implements VersionedSecretKeyCache
+{
+
+    private boolean pooledCryptoInstances;
+
+    private int maxIdleCryptoInstances = 8;
+
+    private boolean offHeapKeyMaterial;
+
+    public static JcaVersionedSecretKeyCacheBuilder builder() {
+        return new JcaVersionedSecretKeyCacheBuilder();
+    }
+
+    @Override
+    public VersionedSecretKey getKey(String keyName) {
+        return getLatestVersion(keyName);
+    }
+
+    @Override
+    public VersionedSecretKey getKey(String keyName, Integer keyVersion) {
+        return getVersion(keyName, keyVersion);
+    }
+
+    @Override
+    public VersionedSecretKey getKey(String keyName, int keyVersion) {
+        return getVersion(keyName, keyVersion);
+    }
+
+    @Override
+    public Map<String, VersionedSecretKey> getKeys(Collection<String> keyNames) {
+        return getLatestVersions(keyNames);
+    }
+
+    @Override
+    public Map<String, VersionedSecretKey> getKeys(Map<String, Integer> keyVersions) {
+        return getVersions(keyVersions);
+    }
+
+    @Override
+    public int[] listVersions(String keyName) {
+        return super.listVersions(keyName);
+    }
+
+    @Override
+    public List<VersionedSecretKey> getKeys(String keyName, int fromVersion, int toVersion) {
+        return getVersionRange(keyName, fromVersion, toVersion);
+    }
+
+    @Override
+    public List<VersionedSecretKey> getLatestKeys(String keyName, int count) {
+        return getNewestVersions(keyName, count);
+    }
+
+    @Override
+    public boolean containsKey(String keyName) {
+        return hasLatestVersion(keyName);
+    }
+
+    @Override
+    public boolean containsKey(String keyName, int keyVersion) {
+        return hasVersion(keyName, keyVersion);
+    }
+
+    @Override
+    public CompletableFuture<VersionedSecretKey> getKeyAsync(String keyName) {
+        return getLatestVersionAsync(keyName);
+    }
+
+    @Override
+    public CompletableFuture<VersionedSecretKey> getKeyAsync(String keyName, int keyVersion) {
+        return getVersionAsync(keyName, keyVersion);
+    }
+
+    @Override
+    protected Class<? extends KeyStore.Entry> getEntryType() {
+        return KeyStore.SecretKeyEntry.class;
+    }
+
+    @Override
+    protected VersionedSecretKey createVersionedKey(KeyStore keyStore, String alias, char[] keyPassword, int version)
+        throws Exception
+    {
+        Key key = keyStore.getKey(alias, keyPassword);
+        if ( !(key instanceof SecretKey) )
+            return null;
+
+        return createSecretKey(
+            (SecretKey) key, version, pooledCryptoInstances, maxIdleCryptoInstances, offHeapKeyMaterial);
+    }
+
+    /**
+     * Wraps a secret key recovered from the key store, pooling crypto
+     * instances and copying the key material off-heap as asked.
+     */
+    static VersionedSecretKey createSecretKey(
+        SecretKey secretKey, int version, boolean pooled, int maxIdle, boolean offHeap)
+    {
+        if ( pooled )
+            return new PooledVersionedSecretKey(secretKey, version, maxIdle, offHeap);
+
+        return new DefaultVersionedSecretKey(secretKey, version, offHeap);
+    }
+
+    /**
+     * Weighs a secret key by the length of its key material in bytes.
+     */
+    @Override
+    protected int weigh(VersionedSecretKey versionedKey) {
+        return versionedKey.getEncodedLength();
+    }
+
+    @Override
+    protected void releaseVersionedKey(VersionedSecretKey versionedKey) {
+        try {
+            releaseSecretKey(versionedKey, offHeapKeyMaterial);
+        } catch (DestroyFailedException e) {
+            log.error("Failed to destroy evicted key", e);
+        }
+    }
+
+    /**
+     * Drops the crypto instances pooled by a key that left the cache, and
+     * zeroes its key material if it was copied off-heap.
+     */
+    static void releaseSecretKey(VersionedSecretKey versionedKey, boolean offHeap) throws DestroyFailedException {
+        if ( versionedKey instanceof PooledVersionedSecretKey )
+            ((PooledVersionedSecretKey) versionedKey).close();
+
+        if ( offHeap && !versionedKey.isDestroyed() )
+            versionedKey.destroy();
+    }
+
+    /**
+     * @return the pooledCryptoInstances
+     */
+    public boolean isPooledCryptoInstances() {
+        return pooledCryptoInstances;
+    }
+
+    /**
+     * @param pooledCryptoInstances whether keys are handed out as
+     *        {@link PooledVersionedSecretKey} instances that keep
+     *        <code>Mac</code> and <code>Cipher</code> objects for reuse
+     */
+    public void setPooledCryptoInstances(boolean pooledCryptoInstances) {
+        this.pooledCryptoInstances = pooledCryptoInstances;
+    }
+
+    /**
+     * @return the maxIdleCryptoInstances
+     */
+    public int getMaxIdleCryptoInstances() {
+        return maxIdleCryptoInstances;
+    }
+
+    /**
+     * @param maxIdleCryptoInstances the number of idle instances kept per key
+     *        and algorithm; defaults to 8
+     */
+    public void setMaxIdleCryptoInstances(int maxIdleCryptoInstances) {
+        this.maxIdleCryptoInstances = maxIdleCryptoInstances;
+    }
+
+    /**
+     * @return the offHeapKeyMaterial
+     */
+    public boolean isOffHeapKeyMaterial() {
+        return offHeapKeyMaterial;
+    }
+
+    /**
+     * @param offHeapKeyMaterial whether cached keys copy their key material
+     *        into a direct buffer that is zeroed when the key leaves the
+     *        cache; keys must then not be used after they expire or are
+     *        replaced by a reloaded copy
+     */
+    public void setOffHeapKeyMaterial(boolean offHeapKeyMaterial) {
+        this.offHeapKeyMaterial = offHeapKeyMaterial;
+    }
+
+}
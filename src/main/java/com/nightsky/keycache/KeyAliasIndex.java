@@ -0,0 +1,247 @@
+package com.nightsky.keycache;
+
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable index of the versioned key names found in a key store, built
+ * from a single scan of the key store's aliases. For every key name the index
+ * holds the sorted versions of the key alongside the key store aliases of
+ * those versions, so that looking up an alias does not allocate.
+ * <p>
+ * Key stores such as JCEKS and PKCS12 store aliases in lower case but look
+ * them up regardless of case. For those key stores the index can also look
+ * up key names that differ in case from the indexed name.
+ *
+ * @author Chris
+ */
+public class KeyAliasIndex {
+
+    private static final int[] NO_VERSIONS = new int[0];
+
+    private static final String[] NO_ALIASES = new String[0];
+
+    private static final Set<String> CASE_INSENSITIVE_TYPES = caseInsensitiveTypes("JKS", "JCEKS", "PKCS12");
+
+    private final Map<String, KeyVersions> keys;
+
+    private final Map<String, KeyVersions> keysIgnoringCase;
+
+    private KeyAliasIndex(Map<String, KeyVersions> keys, Map<String, KeyVersions> keysIgnoringCase) {
+        this.keys = keys;
+        this.keysIgnoringCase = keysIgnoringCase;
+    }
+
+    /**
+     * Scans the aliases of a loaded <code>KeyStore</code> and records every
+     * version of every key whose alias matches the given pattern.
+     *
+     * @param keyStore The loaded key store
+     * @param keyNamePattern The pattern whose first group is the key name and
+     *        whose second group is the key version
+     * @return A new index of the key store's aliases
+     * @throws KeyStoreException If the key store has not been loaded
+     */
+    public static KeyAliasIndex build(KeyStore keyStore, Pattern keyNamePattern) throws KeyStoreException {
+        Map<String, TreeMap<Integer, String>> scanned = new HashMap<>();
+        Enumeration<String> aliases = keyStore.aliases();
+
+        while ( aliases.hasMoreElements() ) {
+            String alias = aliases.nextElement();
+            Matcher m = keyNamePattern.matcher(alias);
+            if ( m.matches() ) {
+                scanned.computeIfAbsent(m.group(1), name -> new TreeMap<>())
+                    .put(Integer.parseInt(m.group(2)), alias);
+            }
+        }
+
+        Map<String, KeyVersions> keys = new HashMap<>();
+        scanned.forEach((name, versions) -> keys.put(name, new KeyVersions(versions)));
+
+        Map<String, KeyVersions> keysIgnoringCase = null;
+        if ( CASE_INSENSITIVE_TYPES.contains(keyStore.getType()) ) {
+            keysIgnoringCase = new HashMap<>();
+            for (Map.Entry<String, KeyVersions> entry : keys.entrySet()) {
+                keysIgnoringCase.put(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue());
+            }
+        }
+
+        return new KeyAliasIndex(Collections.unmodifiableMap(keys), keysIgnoringCase);
+    }
+
+    /**
+     * @param keyName the name of the key
+     * @return the most recent version of the key, or <code>null</code> if the
+     *         key store does not contain the key
+     */
+    public Integer getLatestVersion(String keyName) {
+        KeyVersions entry = keys.get(keyName);
+        return entry == null ? null : entry.versions[entry.versions.length - 1];
+    }
+
+    /**
+     * @param keyName the name of the key
+     * @return the alias of the most recent version of the key, or
+     *         <code>null</code> if the key store does not contain the key
+     */
+    public String getLatestAlias(String keyName) {
+        KeyVersions entry = keys.get(keyName);
+        return entry == null ? null : entry.aliases[entry.aliases.length - 1];
+    }
+
+    /**
+     * @param keyName the name of the key
+     * @param version the version of the key
+     * @return the alias of the given version of the key, or <code>null</code>
+     *         if the key store does not contain that version
+     */
+    public String getAlias(String keyName, int version) {
+        return getAlias(keys.get(keyName), version);
+    }
+
+    /**
+     * Looks up a version of a key whose name may differ in case from the
+     * indexed name, in key stores that look up aliases regardless of case.
+     *
+     * @param keyName the name of the key, in any case
+     * @param version the version of the key
+     * @return the indexed alias of the given version of the key, or
+     *         <code>null</code> if the key store does not contain that version
+     *         or does not ignore the case of aliases
+     */
+    public String getAliasIgnoringCase(String keyName, int version) {
+        if ( keysIgnoringCase == null )
+            return null;
+
+        return getAlias(keysIgnoringCase.get(keyName.toLowerCase(Locale.ROOT)), version);
+    }
+
+    /**
+     * @param alias an alias of a version of the key, as the key store would
+     *        look it up
+     * @param keyName the name of the key, as it appears in the alias
+     * @param version the version of the key
+     * @return <code>true</code> if the alias is the indexed alias of the given
+     *         version of the key, ignoring case if the key store does
+     */
+    public boolean isAlias(String alias, String keyName, int version) {
+        String indexed = getAlias(keyName, version);
+        if ( indexed != null )
+            return indexed.equals(alias);
+
+        indexed = getAliasIgnoringCase(keyName, version);
+        return indexed != null && indexed.equalsIgnoreCase(alias);
+    }
+
+    /**
+     * @param keyName the name of the key
+     * @return the versions of the key in ascending order; empty if the key
+     *         store does not contain the key
+     */
+    public int[] getVersions(String keyName) {
+        KeyVersions entry = keys.get(keyName);
+        return entry == null ? NO_VERSIONS : entry.versions.clone();
+    }
+
+    /**
+     * @param keyName the name of the key
+     * @param fromVersion the lowest version to include
+     * @param toVersion the highest version to include
+     * @return the aliases of the versions of the key within the range, in
+     *         ascending order of version; empty if there are none
+     */
+    public String[] getAliases(String keyName, int fromVersion, int toVersion) {
+        KeyVersions entry = keys.get(keyName);
+        if ( entry == null || fromVersion > toVersion )
+            return NO_ALIASES;
+
+        int from = Arrays.binarySearch(entry.versions, fromVersion);
+        if ( from < 0 )
+            from = -from - 1;
+
+        int to = Arrays.binarySearch(entry.versions, toVersion);
+        to = to < 0 ? -to - 1 : to + 1;
+
+        return Arrays.copyOfRange(entry.aliases, from, to);
+    }
+
+    /**
+     * @param keyName the name of the key
+     * @param count the number of versions to include
+     * @return the aliases of up to <code>count</code> of the most recent
+     *         versions of the key, most recent first; empty if there are none
+     */
+    public String[] getLatestAliases(String keyName, int count) {
+        KeyVersions entry = keys.get(keyName);
+        if ( entry == null || count <= 0 )
+            return NO_ALIASES;
+
+        int length = Math.min(count, entry.aliases.length);
+        String[] aliases = new String[length];
+        for (int i = 0; i < length; i++) {
+            aliases[i] = entry.aliases[entry.aliases.length - 1 - i];
+        }
+
+        return aliases;
+    }
+
+    /**
+     * @return the names of all keys in the index
+     */
+    public Set<String> getKeyNames() {
+        return keys.keySet();
+    }
+
+    /**
+     * @return the number of distinct key names in the index
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    private static String getAlias(KeyVersions entry, int version) {
+        if ( entry == null )
+            return null;
+
+        int i = Arrays.binarySearch(entry.versions, version);
+        return i < 0 ? null : entry.aliases[i];
+    }
+
+    private static Set<String> caseInsensitiveTypes(String... types) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(Arrays.asList(types));
+        return Collections.unmodifiableSet(set);
+    }
+
+    private static final class KeyVersions {
+
+        private final int[] versions;
+
+        private final String[] aliases;
+
+        private KeyVersions(TreeMap<Integer, String> sorted) {
+            versions = new int[sorted.size()];
+            aliases = new String[sorted.size()];
+
+            int i = 0;
+            for (Map.Entry<Integer, String> e : sorted.entrySet()) {
+                versions[i] = e.getKey();
+                aliases[i] = e.getValue();
+                i++;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.nightsky.keycache;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a key store file and runs a callback whenever its content may have
+ * changed. A callback that fails by throwing is run again on the next event
+ * in the directory. The parent directory is watched rather than the file itself, so
+ * that files replaced by a rename or by swapping a symbolic link, as with
+ * Kubernetes secret volumes, are noticed as well. Events for other files in
+ * the directory are ignored unless the watched file's target, size or
+ * modification time changed.
+ *
+ * @author Chris
+ */
+public class KeyStoreFileWatcher implements AutoCloseable {
+
+    private static final long SETTLE_MILLIS = 100L;
+
+    private final Logger log;
+
+    private final Path file;
+
+    private final Runnable onChange;
+
+    private final WatchService watchService;
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    private FileState lastState;
+
+    public KeyStoreFileWatcher(Path file, Runnable onChange) throws IOException {
+        this.log = LoggerFactory.getLogger(getClass());
+        this.file = file.toAbsolutePath();
+        this.onChange = onChange;
+        this.lastState = FileState.of(this.file);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+
+        this.thread = new Thread(this::watch, "keycache-watcher-" + this.file.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void watch() {
+        try {
+            while ( !closed ) {
+                WatchKey key = watchService.take();
+                key.pollEvents();
+
+                // Let writers finish and coalesce the burst of events that a
+                // single update produces:
+                Thread.sleep(SETTLE_MILLIS);
+                key.pollEvents();
+                if ( !key.reset() ) {
+                    log.error("Stopped watching {}: directory is no longer accessible", file);
+                    return;
+                }
+
+                FileState state = FileState.of(file);
+                if ( state.target != null && !state.equals(lastState) ) {
+                    log.info("Key store {} changed, reloading", file);
+                    try {
+                        onChange.run();
+                        lastState = state;
+                    } catch (RuntimeException e) {
+                        log.error("Failed to reload changed key store", e);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Failed to close watch service", e);
+        }
+    }
+
+    private static class FileState {
+
+        private final Path target;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private FileState(Path target, long size, long lastModified) {
+            this.target = target;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private static FileState of(Path file) {
+            try {
+                return new FileState(file.toRealPath(), Files.size(file), Files.getLastModifiedTime(file).toMillis());
+            } catch (IOException e) {
+                // Missing for now, e.g. in the middle of a replacement:
+                return new FileState(null, -1L, -1L);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( !(o instanceof FileState) )
+                return false;
+
+            FileState other = (FileState) o;
+            return Objects.equals(target, other.target) && size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(target, size, lastModified);
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.nightsky.keycache;
+
+import com.google.common.hash.HashCode;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A loaded, read-only <code>KeyStore</code> together with the index of its
+ * aliases. Snapshots are reference counted: the
+ * {@link KeyStoreSnapshotManager} that loaded a snapshot holds one reference
+ * until the snapshot is replaced, and every caller that acquires the snapshot
+ * holds another until it calls {@link #close()}. Once the last reference is
+ * released the loaded key store is dropped.
+ *
+ * @author Chris
+ */
+public class KeyStoreSnapshot implements AutoCloseable {
+
+    private final KeyAliasIndex aliasIndex;
+
+    private final long loadTime;
+
+    private final long contentLength;
+
+    private final HashCode contentHash;
+
+    private final boolean contentReused;
+
+    private final AtomicInteger references;
+
+    private volatile KeyStore keyStore;
+
+    KeyStoreSnapshot(KeyStore keyStore, KeyAliasIndex aliasIndex, long loadTime) {
+        this(keyStore, aliasIndex, loadTime, -1L, null, false);
+    }
+
+    KeyStoreSnapshot(KeyStore keyStore, KeyAliasIndex aliasIndex, long loadTime, long contentLength, HashCode contentHash) {
+        this(keyStore, aliasIndex, loadTime, contentLength, contentHash, false);
+    }
+
+    private KeyStoreSnapshot(
+        KeyStore keyStore,
+        KeyAliasIndex aliasIndex,
+        long loadTime,
+        long contentLength,
+        HashCode contentHash,
+        boolean contentReused)
+    {
+        this.keyStore = keyStore;
+        this.aliasIndex = aliasIndex;
+        this.loadTime = loadTime;
+        this.contentLength = contentLength;
+        this.contentHash = contentHash;
+        this.contentReused = contentReused;
+        this.references = new AtomicInteger(1);
+    }
+
+    /**
+     * Adds a reference to this snapshot.
+     *
+     * @return <code>true</code> if the reference was added, or
+     *         <code>false</code> if the snapshot has already been released
+     */
+    boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if ( count <= 0 )
+                return false;
+        } while ( !references.compareAndSet(count, count + 1) );
+
+        return true;
+    }
+
+    /**
+     * Releases a reference to this snapshot, dropping the loaded key store
+     * when no references remain.
+     */
+    void release() {
+        if ( references.decrementAndGet() == 0 )
+            keyStore = null;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * @return the loaded key store; it must not be modified
+     * @throws IllegalStateException If the snapshot has been released
+     */
+    public KeyStore getKeyStore() {
+        KeyStore ks = keyStore;
+        if ( ks == null )
+            throw new IllegalStateException("Key store snapshot has been released");
+
+        return ks;
+    }
+
+    /**
+     * Creates a snapshot of the same, unchanged, key store content that was
+     * read again at a later time. The key store and alias index are shared
+     * rather than decoded again.
+     *
+     * @param loadTime The time the content was read again
+     * @return the new snapshot, or <code>null</code> if this snapshot has
+     *         already been released
+     */
+    KeyStoreSnapshot reuse(long loadTime) {
+        KeyStore loadedKeyStore = keyStore;
+        if ( loadedKeyStore == null )
+            return null;
+
+        return new KeyStoreSnapshot(loadedKeyStore, aliasIndex, loadTime, contentLength, contentHash, true);
+    }
+
+    /**
+     * @return <code>true</code> if this snapshot shares the key store of the
+     *         previous snapshot because the key store content had not changed
+     */
+    public boolean isContentReused() {
+        return contentReused;
+    }
+
+    /**
+     * @param other Another snapshot of the same key store resource
+     * @return <code>true</code> if both snapshots were loaded from the same
+     *         raw key store content
+     */
+    public boolean hasSameContent(KeyStoreSnapshot other) {
+        return hasContent(other.contentLength, other.contentHash);
+    }
+
+    boolean hasContent(long length, HashCode hash) {
+        return contentHash != null && contentLength == length && contentHash.equals(hash);
+    }
+
+    /**
+     * @return the index of the key store's aliases
+     */
+    public KeyAliasIndex getAliasIndex() {
+        return aliasIndex;
+    }
+
+    /**
+     * @return the ticker time, in nanoseconds, at which the key store was loaded
+     */
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+}
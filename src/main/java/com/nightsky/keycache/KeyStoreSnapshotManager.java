@@ -0,0 +1,531 @@
+package com.nightsky.keycache;
+
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.nightsky.keycache.metrics.KeyCacheMetrics;
+import com.nightsky.keycache.metrics.NoOpKeyCacheMetrics;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * Loads a key store resource at most once per refresh interval and shares the
+ * resulting {@link KeyStoreSnapshot} between all callers within that
+ * interval. Concurrent callers that need a new snapshot wait for a single
+ * load and share its outcome, whichever aliases they are after. When a
+ * refresh executor is given, a snapshot that is older than the refresh
+ * interval but younger than the expire interval keeps being served while a
+ * newer one is loaded in the background.
+ *
+ * @author Chris
+ */
+public class KeyStoreSnapshotManager {
+
+    private static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(30L);
+
+    private static final long INITIAL_RETRY_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    private static final long MAX_RETRY_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(1L);
+
+    private final Logger log;
+
+    private final Resource keyStoreResource;
+
+    private final String keyStoreType;
+
+    private final Supplier<char[]> keyStorePassword;
+
+    private final Pattern keyNamePattern;
+
+    private Ticker ticker;
+
+    private final AtomicBoolean refreshing;
+
+    private long refreshIntervalNanos;
+
+    private long expireIntervalNanos;
+
+    private long staleGraceNanos;
+
+    private int failedLoads;
+
+    private long nextRetryTime;
+
+    private CompletableFuture<KeyStoreSnapshot> failedLoad;
+
+    private volatile boolean stale;
+
+    private Executor refreshExecutor;
+
+    private KeyCacheMetrics metrics;
+
+    private SnapshotListener listener;
+
+    private volatile KeyStoreSnapshot current;
+
+    private CompletableFuture<KeyStoreSnapshot> pendingLoad;
+
+    private long pendingLoadGeneration;
+
+    private long startedLoads;
+
+    public KeyStoreSnapshotManager(
+        Resource keyStoreResource,
+        String keyStoreType,
+        Supplier<char[]> keyStorePassword,
+        Pattern keyNamePattern)
+    {
+        this.log = LoggerFactory.getLogger(getClass());
+        this.keyStoreResource = keyStoreResource;
+        this.keyStoreType = keyStoreType;
+        this.keyStorePassword = keyStorePassword;
+        this.keyNamePattern = keyNamePattern;
+        this.ticker = Ticker.systemTicker();
+        this.refreshing = new AtomicBoolean();
+        this.refreshIntervalNanos = DEFAULT_INTERVAL.toNanos();
+        this.expireIntervalNanos = DEFAULT_INTERVAL.toNanos();
+        this.metrics = NoOpKeyCacheMetrics.INSTANCE;
+    }
+
+    /**
+     * Returns the current snapshot, loading the key store if no snapshot has
+     * been loaded yet or the current one has expired. A snapshot that is only
+     * due for refresh is returned as is and, if a refresh executor was given,
+     * reloaded in the background. The caller must close the returned snapshot
+     * when done with it.
+     *
+     * @return A retained snapshot of the key store
+     * @throws Exception If the key store could not be loaded
+     */
+    public KeyStoreSnapshot acquire() throws Exception {
+        return acquire(Math.max(refreshIntervalNanos, expireIntervalNanos));
+    }
+
+    /**
+     * Returns the current snapshot, loading the key store on the calling
+     * thread if the current snapshot is older than the refresh interval. The
+     * caller must close the returned snapshot when done with it.
+     *
+     * @return A retained snapshot of the key store
+     * @throws Exception If the key store could not be loaded
+     */
+    public KeyStoreSnapshot acquireFresh() throws Exception {
+        return acquire(refreshIntervalNanos);
+    }
+
+    /**
+     * Loads the key store now, however young the current snapshot is and
+     * whether or not loads are backing off, for example because the key store
+     * is known to have changed. A load that is already in flight may have
+     * read the key store before the change, so it is waited for and then
+     * followed by a load of its own.
+     *
+     * @return <code>true</code> if the content of the key store differs from
+     *         that of the previous snapshot
+     * @throws Exception If the key store could not be loaded
+     */
+    public boolean reload() throws Exception {
+        long generation;
+        synchronized (this) {
+            generation = startedLoads;
+        }
+
+        while ( true ) {
+            CompletableFuture<KeyStoreSnapshot> load;
+            boolean loader = false;
+            boolean earlier;
+            synchronized (this) {
+                if ( pendingLoad == null ) {
+                    startLoad();
+                    loader = true;
+                }
+                load = pendingLoad;
+                earlier = pendingLoadGeneration <= generation;
+            }
+
+            if ( loader )
+                loadAndInstall(load);
+
+            if ( earlier ) {
+                // Started before this call, so it does not count:
+                try {
+                    join(load);
+                } catch (Exception e) {
+                    log.debug("Key store load in flight failed, reloading", e);
+                }
+                continue;
+            }
+
+            KeyStoreSnapshot snapshot = join(load);
+            log.debug("Reloaded key store from {}", keyStoreResource);
+            return !snapshot.isContentReused();
+        }
+    }
+
+    private KeyStoreSnapshot acquire(long maxAgeNanos) throws Exception {
+        while ( true ) {
+            KeyStoreSnapshot snapshot = current;
+            if ( age(snapshot) < maxAgeNanos && snapshot.retain() ) {
+                if ( age(snapshot) >= refreshIntervalNanos )
+                    scheduleRefresh();
+
+                return snapshot;
+            }
+
+            CompletableFuture<KeyStoreSnapshot> load;
+            boolean loader = false;
+            synchronized (this) {
+                snapshot = current;
+                if ( age(snapshot) < maxAgeNanos && snapshot.retain() )
+                    return snapshot;
+
+                // Keep serving the last good snapshot until the next retry, or
+                // fail with the last failure once it can no longer be served:
+                if ( isBackingOff() ) {
+                    KeyStoreSnapshot staleSnapshot = retainStale();
+                    if ( staleSnapshot != null )
+                        return staleSnapshot;
+
+                    setStale(false);
+                    load = failedLoad;
+                } else {
+                    // Join the load in flight, if any, rather than start
+                    // another:
+                    if ( pendingLoad == null ) {
+                        startLoad();
+                        loader = true;
+                    }
+                    load = pendingLoad;
+                }
+            }
+
+            if ( loader )
+                loadAndInstall(load);
+
+            try {
+                snapshot = join(load);
+            } catch (Exception e) {
+                KeyStoreSnapshot staleSnapshot = retainStale();
+                if ( staleSnapshot == null )
+                    throw e;
+
+                return staleSnapshot;
+            }
+
+            if ( snapshot.retain() )
+                return snapshot;
+        }
+    }
+
+    /**
+     * Starts a new pending load, numbered after every load started before it.
+     * Must be called while holding the lock on this manager.
+     */
+    private void startLoad() {
+        pendingLoad = new CompletableFuture<>();
+        pendingLoadGeneration = ++startedLoads;
+    }
+
+    /**
+     * Loads a new snapshot and makes it current, completing the pending load
+     * with the result so that every caller waiting for it shares the outcome,
+     * including a failure.
+     */
+    private void loadAndInstall(CompletableFuture<KeyStoreSnapshot> load) {
+        try {
+            KeyStoreSnapshot snapshot = load();
+            KeyStoreSnapshot previous;
+            synchronized (this) {
+                previous = current;
+                current = snapshot;
+                pendingLoad = null;
+                failedLoads = 0;
+                failedLoad = null;
+            }
+            setStale(false);
+            load.complete(snapshot);
+
+            // The previous snapshot stays loaded until the listener is done:
+            if ( listener != null ) {
+                try {
+                    listener.snapshotLoaded(previous, snapshot);
+                } catch (RuntimeException e) {
+                    log.error("Key store snapshot listener failed", e);
+                }
+            }
+            if ( previous != null )
+                previous.release();
+        } catch (Exception | Error e) {
+            boolean servingStale;
+            synchronized (this) {
+                pendingLoad = null;
+                failedLoads++;
+                long backoff = INITIAL_RETRY_BACKOFF_NANOS << Math.min(failedLoads - 1, 16);
+                nextRetryTime = ticker.read() + Math.min(backoff, MAX_RETRY_BACKOFF_NANOS);
+                failedLoad = load;
+                servingStale = isServable(current);
+            }
+
+            if ( servingStale )
+                log.warn("Failed to load key store, serving keys from the last good copy", e);
+            setStale(servingStale);
+            load.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Loads are only retried with backoff when stale snapshots may be served,
+     * whether or not the current one still may be.
+     */
+    private boolean isBackingOff() {
+        return failedLoad != null && staleGraceNanos > 0L && ticker.read() - nextRetryTime < 0;
+    }
+
+    /**
+     * @return the current snapshot, retained, if it may still be served after
+     *         a failed load, or <code>null</code> otherwise
+     */
+    private KeyStoreSnapshot retainStale() {
+        KeyStoreSnapshot snapshot = current;
+        return isServable(snapshot) && snapshot.retain() ? snapshot : null;
+    }
+
+    private boolean isServable(KeyStoreSnapshot snapshot) {
+        return staleGraceNanos > 0L
+            && age(snapshot) < Math.max(refreshIntervalNanos, expireIntervalNanos) + staleGraceNanos;
+    }
+
+    private void setStale(boolean stale) {
+        if ( this.stale != stale ) {
+            this.stale = stale;
+            metrics.recordKeyStoreStale(stale);
+        }
+    }
+
+    /**
+     * @return <code>true</code> while the key store cannot be loaded and keys
+     *         are being served from an expired snapshot
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    private static KeyStoreSnapshot join(CompletableFuture<KeyStoreSnapshot> load) throws Exception {
+        try {
+            return load.get();
+        } catch (ExecutionException e) {
+            if ( e.getCause() instanceof Exception )
+                throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the alias index of the current snapshot, loading the key store
+     *         as {@link #acquire()} would if the snapshot has expired
+     * @throws Exception If the key store could not be loaded
+     */
+    public KeyAliasIndex getAliasIndex() throws Exception {
+        KeyAliasIndex index = peekAliasIndex();
+        if ( index != null )
+            return index;
+
+        try ( KeyStoreSnapshot acquired = acquire() ) {
+            return acquired.getAliasIndex();
+        }
+    }
+
+    /**
+     * Returns the alias index of the current snapshot if it can be served
+     * without loading the key store on the calling thread, scheduling a
+     * background refresh if the snapshot is due for one.
+     *
+     * @return the alias index of the current snapshot, or <code>null</code>
+     *         if the key store would have to be loaded first
+     */
+    public KeyAliasIndex peekAliasIndex() {
+        // The index outlives the loaded key store, so it can be read without
+        // retaining the snapshot:
+        KeyStoreSnapshot snapshot = current;
+        long age = age(snapshot);
+        if ( age >= Math.max(refreshIntervalNanos, expireIntervalNanos) )
+            return null;
+
+        if ( age >= refreshIntervalNanos )
+            scheduleRefresh();
+
+        return snapshot.getAliasIndex();
+    }
+
+    /**
+     * @param snapshot A snapshot handed out by this manager
+     * @return <code>true</code> if no snapshot has been loaded since
+     */
+    public boolean isCurrent(KeyStoreSnapshot snapshot) {
+        return current == snapshot;
+    }
+
+    /**
+     * @return the alias index of the most recently loaded snapshot, however
+     *         old, or <code>null</code> if the key store has not been loaded
+     *         yet; never loads the key store
+     */
+    public KeyAliasIndex getCurrentAliasIndex() {
+        KeyStoreSnapshot snapshot = current;
+        return snapshot == null ? null : snapshot.getAliasIndex();
+    }
+
+    private long age(KeyStoreSnapshot snapshot) {
+        return snapshot == null ? Long.MAX_VALUE : ticker.read() - snapshot.getLoadTime();
+    }
+
+    private void scheduleRefresh() {
+        if ( refreshExecutor == null || !refreshing.compareAndSet(false, true) )
+            return;
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    // Only the load matters here, so release the snapshot at once:
+                    acquireFresh().close();
+                    log.debug("Refreshed key store from {}", keyStoreResource);
+                } catch (Exception e) {
+                    log.error("Failed to refresh key store", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.set(false);
+            log.error("Failed to schedule key store refresh", e);
+        }
+    }
+
+    private KeyStoreSnapshot load() throws Exception {
+        log.debug("Loading key store from {}", keyStoreResource);
+
+        long loadTime = ticker.read();
+        KeyStore keyStore;
+        byte [] content;
+        HashCode contentHash;
+        try ( InputStream keyStoreInputStream = keyStoreResource.getInputStream() )
+        {
+            content = ByteStreams.toByteArray(keyStoreInputStream);
+            contentHash = Hashing.murmur3_128().hashBytes(content);
+
+            // Unchanged content needs neither decoding nor scanning again:
+            KeyStoreSnapshot previous = current;
+            if ( previous != null && previous.hasContent(content.length, contentHash) ) {
+                KeyStoreSnapshot reused = previous.reuse(loadTime);
+                if ( reused != null ) {
+                    metrics.recordKeyStoreLoad(ticker.read() - loadTime, true);
+                    log.debug("Key store {} is unchanged", keyStoreResource);
+                    return reused;
+                }
+            }
+
+            keyStore = KeyStore.getInstance(keyStoreType);
+            keyStore.load(new ByteArrayInputStream(content), keyStorePassword.get());
+            metrics.recordKeyStoreLoad(ticker.read() - loadTime, true);
+        } catch (Exception e) {
+            metrics.recordKeyStoreLoad(ticker.read() - loadTime, false);
+            throw e;
+        }
+
+        long scanTime = ticker.read();
+        KeyAliasIndex aliasIndex = KeyAliasIndex.build(keyStore, keyNamePattern);
+        metrics.recordAliasScan(ticker.read() - scanTime, aliasIndex.size());
+
+        return new KeyStoreSnapshot(keyStore, aliasIndex, loadTime, content.length, contentHash);
+    }
+
+    /**
+     * @param refreshInterval the age after which a snapshot is reloaded;
+     *        defaults to 30 minutes
+     */
+    public void setRefreshInterval(Duration refreshInterval) {
+        this.refreshIntervalNanos = refreshInterval.toNanos();
+    }
+
+    /**
+     * @param expireInterval the age after which a snapshot is no longer
+     *        served while it is being refreshed in the background; never
+     *        shorter than the refresh interval
+     */
+    public void setExpireInterval(Duration expireInterval) {
+        this.expireIntervalNanos = expireInterval.toNanos();
+    }
+
+    /**
+     * @param staleGracePeriod how long past its expiry a snapshot keeps being
+     *        served while the key store cannot be loaded; loads are retried
+     *        with exponential backoff meanwhile, and after the grace period
+     *        callers fail with the last failure until the next retry.
+     *        <code>null</code> or zero disables serving stale snapshots
+     */
+    public void setStaleGracePeriod(Duration staleGracePeriod) {
+        this.staleGraceNanos = staleGracePeriod == null ? 0L : staleGracePeriod.toNanos();
+    }
+
+    /**
+     * @param refreshExecutor the executor that reloads snapshots which are due
+     *        for refresh; <code>null</code> reloads them on the calling thread
+     */
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * @param listener the listener that is told about every newly loaded
+     *        snapshot
+     */
+    public void setSnapshotListener(SnapshotListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param ticker the time source that snapshot ages, retry backoffs and
+     *        load durations are measured with
+     */
+    public void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * @param metrics the metrics that key store loads are reported to
+     */
+    public void setMetrics(KeyCacheMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Is told about every snapshot that replaces the current one.
+     */
+    public interface SnapshotListener {
+
+        /**
+         * Called after a new snapshot has become current, on the thread that
+         * loaded it.
+         *
+         * @param previous The snapshot that was replaced, still loaded, or
+         *        <code>null</code> for the first snapshot
+         * @param current The new snapshot
+         */
+        public void snapshotLoaded(KeyStoreSnapshot previous, KeyStoreSnapshot current);
+
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.nightsky.keycache;
+
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * A versioned secret key that keeps idle <code>Mac</code> and
+ * <code>Cipher</code> instances for reuse, so that callers do not pay for a
+ * provider lookup on every operation. Macs are handed out initialized with
+ * this key; ciphers are initialized with this key and the caller's
+ * parameters on every borrow, since AEAD modes require a fresh IV per
+ * message.
+ * <p>
+ * Instances must be returned to the pool they were borrowed from and must not
+ * be used after they have been returned. Once the key leaves the cache the
+ * pool is closed: pooled instances are dropped and returned instances are
+ * discarded.
+ *
+ * @author Chris
+ */
+public class PooledVersionedSecretKey extends DefaultVersionedSecretKey implements AutoCloseable {
+
+    private final int maxIdleInstances;
+
+    private final ConcurrentMap<String, BlockingQueue<Mac>> macs;
+
+    private final ConcurrentMap<String, BlockingQueue<Cipher>> ciphers;
+
+    private volatile boolean closed;
+
+    public PooledVersionedSecretKey(SecretKey secretKey, int version, int maxIdleInstances) {
+        this(secretKey, version, maxIdleInstances, false);
+    }
+
+    public PooledVersionedSecretKey(SecretKey secretKey, int version, int maxIdleInstances, boolean offHeap) {
+        super(secretKey, version, offHeap);
+        this.maxIdleInstances = maxIdleInstances;
+        this.macs = new ConcurrentHashMap<>();
+        this.ciphers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param algorithm The MAC algorithm, e.g. <code>HmacSHA256</code>
+     * @return a <code>Mac</code> initialized with this key
+     * @throws GeneralSecurityException If the algorithm is not available or
+     *         does not accept this key
+     */
+    public Mac borrowMac(String algorithm) throws GeneralSecurityException {
+        Mac mac = poll(macs, algorithm);
+        if ( mac == null ) {
+            mac = Mac.getInstance(algorithm);
+            mac.init(getSecretKey());
+        }
+
+        return mac;
+    }
+
+    /**
+     * @param algorithm The algorithm the <code>Mac</code> was borrowed for
+     * @param mac The <code>Mac</code> to return to the pool
+     */
+    public void releaseMac(String algorithm, Mac mac) {
+        mac.reset();
+        offer(macs, algorithm, mac);
+    }
+
+    /**
+     * @param transformation The cipher transformation, e.g.
+     *        <code>AES/GCM/NoPadding</code>
+     * @param opmode The operation mode, e.g. <code>Cipher.ENCRYPT_MODE</code>
+     * @param params The algorithm parameters, or <code>null</code> to let the
+     *        provider generate them
+     * @return a <code>Cipher</code> initialized with this key and the given
+     *         parameters
+     * @throws GeneralSecurityException If the transformation is not available
+     *         or the cipher could not be initialized
+     */
+    public Cipher borrowCipher(String transformation, int opmode, AlgorithmParameterSpec params)
+        throws GeneralSecurityException
+    {
+        Cipher cipher = poll(ciphers, transformation);
+        if ( cipher == null )
+            cipher = Cipher.getInstance(transformation);
+
+        if ( params == null )
+            cipher.init(opmode, getSecretKey());
+        else
+            cipher.init(opmode, getSecretKey(), params);
+
+        return cipher;
+    }
+
+    /**
+     * @param transformation The transformation the <code>Cipher</code> was
+     *        borrowed for
+     * @param cipher The <code>Cipher</code> to return to the pool
+     */
+    public void releaseCipher(String transformation, Cipher cipher) {
+        offer(ciphers, transformation, cipher);
+    }
+
+    /**
+     * @return <code>true</code> once the key has left the cache
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Drops all pooled instances. Instances returned afterwards are
+     * discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        macs.clear();
+        ciphers.clear();
+    }
+
+    private <T> T poll(ConcurrentMap<String, BlockingQueue<T>> pool, String algorithm) {
+        BlockingQueue<T> idle = pool.get(algorithm);
+        return idle == null ? null : idle.poll();
+    }
+
+    private <T> void offer(ConcurrentMap<String, BlockingQueue<T>> pool, String algorithm, T instance) {
+        if ( closed || maxIdleInstances <= 0 )
+            return;
+
+        pool.computeIfAbsent(algorithm, a -> new ArrayBlockingQueue<>(maxIdleInstances)).offer(instance);
+
+        // Do not keep instances that were returned while the pool was closing:
+        if ( closed )
+            pool.clear();
+    }
+
+}
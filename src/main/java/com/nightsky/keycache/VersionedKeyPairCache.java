@@ -1,13 +1,137 @@
-package com.nightsky.keycache;
-
-/**
- *
- * @author Chris
- */
-public interface VersionedKeyPairCache {
-
-    public VersionedKeyPair getKeyPair(String keyPairName);
-
-    public VersionedKeyPair getKeyPair(String keyPairName, Integer keyVersion);
-
-}
+package com.nightsky.keycache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+/**
+ * Only the lookups of the latest and of a specific version of a key pair
+ * must be implemented. The other methods fall back on those two lookups and may be
+ * overridden with more efficient versions.
+ *
+ * @author Chris
+ */
+public interface VersionedKeyPairCache {
+
+    public VersionedKeyPair getKeyPair(String keyPairName);
+
+    public VersionedKeyPair getKeyPair(String keyPairName, Integer keyVersion);
+
+    public default VersionedKeyPair getKeyPair(String keyPairName, int keyVersion) {
+        return getKeyPair(keyPairName, Integer.valueOf(keyVersion));
+    }
+
+    /**
+     * @return the latest versions of the key pairs that could be retrieved,
+     *         by key pair name
+     */
+    public default Map<String, VersionedKeyPair> getKeyPairs(Collection<String> keyPairNames) {
+        Map<String, VersionedKeyPair> keyPairs = new LinkedHashMap<>();
+        for (String keyPairName : keyPairNames) {
+            VersionedKeyPair keyPair = getKeyPair(keyPairName);
+            if ( keyPair != null )
+                keyPairs.put(keyPairName, keyPair);
+        }
+
+        return keyPairs;
+    }
+
+    /**
+     * @return the versions of the key pairs that could be retrieved, by key
+     *         pair name; a <code>null</code> version selects the latest
+     *         version
+     */
+    public default Map<String, VersionedKeyPair> getKeyPairs(Map<String, Integer> keyVersions) {
+        Map<String, VersionedKeyPair> keyPairs = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> keyVersion : keyVersions.entrySet()) {
+            VersionedKeyPair keyPair = getKeyPair(keyVersion.getKey(), keyVersion.getValue());
+            if ( keyPair != null )
+                keyPairs.put(keyVersion.getKey(), keyPair);
+        }
+
+        return keyPairs;
+    }
+
+    /**
+     * By default, versions are looked up downwards from the latest one until
+     * one is missing, so versions older than a gap in the versions are not
+     * listed. Implementations that index their versions list them all.
+     *
+     * @return the versions of the key pair in ascending order; empty if there
+     *         are none
+     */
+    public default int[] listVersions(String keyPairName) {
+        VersionedKeyPair latestKeyPair = getKeyPair(keyPairName);
+        if ( latestKeyPair == null )
+            return new int[0];
+
+        int latestVersion = latestKeyPair.getVersion();
+        int oldestVersion = latestVersion;
+        while ( oldestVersion > 0 && containsKeyPair(keyPairName, oldestVersion - 1) ) {
+            oldestVersion--;
+        }
+
+        return IntStream.rangeClosed(oldestVersion, latestVersion).toArray();
+    }
+
+    /**
+     * @return the versions of the key pair from <code>fromVersion</code> to
+     *         <code>toVersion</code> inclusive, in ascending order
+     */
+    public default List<VersionedKeyPair> getKeyPairs(String keyPairName, int fromVersion, int toVersion) {
+        List<VersionedKeyPair> keyPairs = new ArrayList<>();
+        for (int version : listVersions(keyPairName)) {
+            if ( version < fromVersion || version > toVersion )
+                continue;
+
+            VersionedKeyPair keyPair = getKeyPair(keyPairName, version);
+            if ( keyPair != null )
+                keyPairs.add(keyPair);
+        }
+
+        return keyPairs;
+    }
+
+    /**
+     * @return up to <code>count</code> of the most recent versions of the
+     *         key pair, most recent first
+     */
+    public default List<VersionedKeyPair> getLatestKeyPairs(String keyPairName, int count) {
+        int [] versions = listVersions(keyPairName);
+        List<VersionedKeyPair> keyPairs = new ArrayList<>();
+        for (int i = versions.length - 1; i >= 0 && keyPairs.size() < count; i--) {
+            VersionedKeyPair keyPair = getKeyPair(keyPairName, versions[i]);
+            if ( keyPair != null )
+                keyPairs.add(keyPair);
+        }
+
+        return keyPairs;
+    }
+
+    public default boolean containsKeyPair(String keyPairName) {
+        return getKeyPair(keyPairName) != null;
+    }
+
+    public default boolean containsKeyPair(String keyPairName, int keyVersion) {
+        return getKeyPair(keyPairName, keyVersion) != null;
+    }
+
+    /**
+     * By default, the key pair is looked up on the common fork-join pool.
+     */
+    public default CompletableFuture<VersionedKeyPair> getKeyPairAsync(String keyPairName) {
+        return CompletableFuture.supplyAsync(() -> getKeyPair(keyPairName));
+    }
+
+    /**
+     * By default, the key pair is looked up on the common fork-join pool.
+     */
+    public default CompletableFuture<VersionedKeyPair> getKeyPairAsync(String keyPairName, int keyVersion) {
+        return CompletableFuture.supplyAsync(() -> getKeyPair(keyPairName, keyVersion));
+    }
+
+}
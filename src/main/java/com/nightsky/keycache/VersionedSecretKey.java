@@ -1,13 +1,60 @@
-package com.nightsky.keycache;
-
-import javax.crypto.SecretKey;
-
-/**
- *
- * @author Chris
- */
-public interface VersionedSecretKey extends SecretKey {
-
-    public int getVersion();
-
-}
+package com.nightsky.keycache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.crypto.SecretKey;
+
+/**
+ *
+ * @author Chris
+ */
+public interface VersionedSecretKey extends SecretKey {
+
+    public int getVersion();
+
+    /**
+     * @return the length of the encoded key material
+     */
+    public default int getEncodedLength() {
+        byte [] encoded = getEncoded();
+        Arrays.fill(encoded, (byte) 0);
+        return encoded.length;
+    }
+
+    /**
+     * Copies the encoded key material into a caller-provided array instead of
+     * returning a new copy as {@link #getEncoded()} does.
+     *
+     * @param dest The array to copy the key material into
+     * @param offset The offset in the array to start copying at
+     * @return the number of bytes copied
+     */
+    public default int getEncoded(byte[] dest, int offset) {
+        byte [] encoded = getEncoded();
+        try {
+            System.arraycopy(encoded, 0, dest, offset, encoded.length);
+            return encoded.length;
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    /**
+     * Copies the encoded key material into a caller-provided buffer, starting
+     * at its position, instead of returning a new copy as
+     * {@link #getEncoded()} does.
+     *
+     * @param dest The buffer to copy the key material into
+     * @return the number of bytes copied
+     */
+    public default int getEncoded(ByteBuffer dest) {
+        byte [] encoded = getEncoded();
+        try {
+            dest.put(encoded);
+            return encoded.length;
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+}
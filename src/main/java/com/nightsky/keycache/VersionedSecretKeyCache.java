@@ -1,13 +1,136 @@
-package com.nightsky.keycache;
-
-/**
- *
- * @author Chris
- */
-public interface VersionedSecretKeyCache {
-
-    public VersionedSecretKey getKey(String keyName);
-
-    public VersionedSecretKey getKey(String keyName, Integer keyVersion);
-
-}
+package com.nightsky.keycache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+/**
+ * Only the lookups of the latest and of a specific version of a key must be
+ * implemented. The other methods fall back on those two lookups and may be
+ * overridden with more efficient versions.
+ *
+ * @author Chris
+ */
+public interface VersionedSecretKeyCache {
+
+    public VersionedSecretKey getKey(String keyName);
+
+    public VersionedSecretKey getKey(String keyName, Integer keyVersion);
+
+    public default VersionedSecretKey getKey(String keyName, int keyVersion) {
+        return getKey(keyName, Integer.valueOf(keyVersion));
+    }
+
+    /**
+     * @return the latest versions of the keys that could be retrieved, by
+     *         key name
+     */
+    public default Map<String, VersionedSecretKey> getKeys(Collection<String> keyNames) {
+        Map<String, VersionedSecretKey> keys = new LinkedHashMap<>();
+        for (String keyName : keyNames) {
+            VersionedSecretKey key = getKey(keyName);
+            if ( key != null )
+                keys.put(keyName, key);
+        }
+
+        return keys;
+    }
+
+    /**
+     * @return the versions of the keys that could be retrieved, by key name;
+     *         a <code>null</code> version selects the latest version
+     */
+    public default Map<String, VersionedSecretKey> getKeys(Map<String, Integer> keyVersions) {
+        Map<String, VersionedSecretKey> keys = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> keyVersion : keyVersions.entrySet()) {
+            VersionedSecretKey key = getKey(keyVersion.getKey(), keyVersion.getValue());
+            if ( key != null )
+                keys.put(keyVersion.getKey(), key);
+        }
+
+        return keys;
+    }
+
+    /**
+     * By default, versions are looked up downwards from the latest one until
+     * one is missing, so versions older than a gap in the versions are not
+     * listed. Implementations that index their versions list them all.
+     *
+     * @return the versions of the key in ascending order; empty if there are
+     *         none
+     */
+    public default int[] listVersions(String keyName) {
+        VersionedSecretKey latestKey = getKey(keyName);
+        if ( latestKey == null )
+            return new int[0];
+
+        int latestVersion = latestKey.getVersion();
+        int oldestVersion = latestVersion;
+        while ( oldestVersion > 0 && containsKey(keyName, oldestVersion - 1) ) {
+            oldestVersion--;
+        }
+
+        return IntStream.rangeClosed(oldestVersion, latestVersion).toArray();
+    }
+
+    /**
+     * @return the versions of the key from <code>fromVersion</code> to
+     *         <code>toVersion</code> inclusive, in ascending order
+     */
+    public default List<VersionedSecretKey> getKeys(String keyName, int fromVersion, int toVersion) {
+        List<VersionedSecretKey> keys = new ArrayList<>();
+        for (int version : listVersions(keyName)) {
+            if ( version < fromVersion || version > toVersion )
+                continue;
+
+            VersionedSecretKey key = getKey(keyName, version);
+            if ( key != null )
+                keys.add(key);
+        }
+
+        return keys;
+    }
+
+    /**
+     * @return up to <code>count</code> of the most recent versions of the
+     *         key, most recent first
+     */
+    public default List<VersionedSecretKey> getLatestKeys(String keyName, int count) {
+        int [] versions = listVersions(keyName);
+        List<VersionedSecretKey> keys = new ArrayList<>();
+        for (int i = versions.length - 1; i >= 0 && keys.size() < count; i--) {
+            VersionedSecretKey key = getKey(keyName, versions[i]);
+            if ( key != null )
+                keys.add(key);
+        }
+
+        return keys;
+    }
+
+    public default boolean containsKey(String keyName) {
+        return getKey(keyName) != null;
+    }
+
+    public default boolean containsKey(String keyName, int keyVersion) {
+        return getKey(keyName, keyVersion) != null;
+    }
+
+    /**
+     * By default, the key is looked up on the common fork-join pool.
+     */
+    public default CompletableFuture<VersionedSecretKey> getKeyAsync(String keyName) {
+        return CompletableFuture.supplyAsync(() -> getKey(keyName));
+    }
+
+    /**
+     * By default, the key is looked up on the common fork-join pool.
+     */
+    public default CompletableFuture<VersionedSecretKey> getKeyAsync(String keyName, int keyVersion) {
+        return CompletableFuture.supplyAsync(() -> getKey(keyName, keyVersion));
+    }
+
+}
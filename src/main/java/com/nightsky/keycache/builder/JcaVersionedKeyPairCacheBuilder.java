@@ -1,60 +1,155 @@
-package com.nightsky.keycache.builder;
-
-import com.nightsky.keycache.JcaVersionedKeyPairCache;
-import java.time.Duration;
-import java.util.Map;
-import org.springframework.core.io.Resource;
-
-/**
- *
- * @author Chris
- */
-public class JcaVersionedKeyPairCacheBuilder {
-
-    private final JcaVersionedKeyPairCache target;
-
-    public JcaVersionedKeyPairCacheBuilder() {
-        this.target = new JcaVersionedKeyPairCache();
-    }
-
-    public JcaVersionedKeyPairCacheBuilder withKeyStoreResource(Resource resource) {
-        target.setKeyStoreResource(resource);
-        return this;
-    }
-
-    public JcaVersionedKeyPairCacheBuilder withKeyStorePasswordResource(Resource resource) {
-        target.setKeyStorePasswordResource(resource);
-        return this;
-    }
-
-    public JcaVersionedKeyPairCacheBuilder withKeyStorePassword(String password) {
-        target.setKeyStorePassword(password);
-        return this;
-    }
-
-    public JcaVersionedKeyPairCacheBuilder withKeyPasswords(Map<String, Resource> keyPasswords) {
-        target.setKeyPasswords(keyPasswords);
-        return this;
-    }
-
-    public JcaVersionedKeyPairCacheBuilder withKeyStoreType(String keyStoreType) {
-        target.setKeyStoreType(keyStoreType);
-        return this;
-    }
-
-    public JcaVersionedKeyPairCacheBuilder withKeyNamePattern(String keyNamePattern) {
-        target.setKeyNamePattern(keyNamePattern);
-        return this;
-    }
-
-    public JcaVersionedKeyPairCacheBuilder withExpireAfterWriteDuration(Duration duration) {
-        target.setExpireAfterWrite(duration);
-        return this;
-    }
-
-    public JcaVersionedKeyPairCache build() {
-        target.initialize();
-        return target;
-    }
-
-}
+package com.nightsky.keycache.builder;
+
+import com.google.common.base.Ticker;
+import com.nightsky.keycache.CacheEngine;
+import com.nightsky.keycache.JcaVersionedKeyPairCache;
+import com.nightsky.keycache.metrics.KeyCacheMetrics;
+import com.nightsky.keycache.password.KeyPasswordResolver;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * @author Chris
+ */
+public class JcaVersionedKeyPairCacheBuilder {
+
+    private final JcaVersionedKeyPairCache target;
+
+    public JcaVersionedKeyPairCacheBuilder() {
+        this.target = new JcaVersionedKeyPairCache();
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyStoreResource(Resource resource) {
+        target.setKeyStoreResource(resource);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyStorePasswordResource(Resource resource) {
+        target.setKeyStorePasswordResource(resource);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyStorePassword(String password) {
+        target.setKeyStorePassword(password);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyPasswords(Map<String, Resource> keyPasswords) {
+        target.setKeyPasswords(keyPasswords);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyPasswordPatterns(Map<String, Resource> keyPasswordPatterns) {
+        target.setKeyPasswordPatterns(keyPasswordPatterns);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withDefaultKeyPassword(Resource resource) {
+        target.setDefaultKeyPassword(resource);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyPasswordRefreshDuration(Duration duration) {
+        target.setKeyPasswordRefresh(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyPasswordResolver(KeyPasswordResolver resolver) {
+        target.setKeyPasswordResolver(resolver);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyStoreWatch(boolean watch) {
+        target.setWatchKeyStore(watch);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyStoreType(String keyStoreType) {
+        target.setKeyStoreType(keyStoreType);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withKeyNamePattern(String keyNamePattern) {
+        target.setKeyNamePattern(keyNamePattern);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withExpireAfterWriteDuration(Duration duration) {
+        target.setExpireAfterWrite(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withNegativeCacheDuration(Duration duration) {
+        target.setNegativeCacheDuration(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withStaleGracePeriod(Duration duration) {
+        target.setStaleGracePeriod(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withRefreshAfterWriteDuration(Duration duration) {
+        target.setRefreshAfterWrite(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withRefreshExecutor(Executor executor) {
+        target.setRefreshExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withTicker(Ticker ticker) {
+        target.setTicker(ticker);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withCacheEngine(CacheEngine cacheEngine) {
+        target.setCacheEngine(cacheEngine);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withMaximumSize(long maximumSize) {
+        target.setMaximumSize(maximumSize);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withMaximumWeight(long maximumWeight) {
+        target.setMaximumWeight(maximumWeight);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withWarmUp(boolean warmUp) {
+        target.setWarmUp(warmUp);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withWarmUpExecutor(Executor executor) {
+        target.setWarmUpExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withWarmUpLatestVersions(int latestVersions) {
+        target.setWarmUpLatestVersions(latestVersions);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withAsyncExecutor(Executor executor) {
+        target.setAsyncExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCacheBuilder withMetrics(KeyCacheMetrics metrics) {
+        target.setMetrics(metrics);
+        return this;
+    }
+
+    public JcaVersionedKeyPairCache build() {
+        target.initialize();
+        return target;
+    }
+
+}
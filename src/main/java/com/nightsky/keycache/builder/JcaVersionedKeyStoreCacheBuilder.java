@@ -0,0 +1,170 @@
+package com.nightsky.keycache.builder;
+
+import com.google.common.base.Ticker;
+import com.nightsky.keycache.CacheEngine;
+import com.nightsky.keycache.JcaVersionedKeyStoreCache;
+import com.nightsky.keycache.metrics.KeyCacheMetrics;
+import com.nightsky.keycache.password.KeyPasswordResolver;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * @author Chris
+ */
+public class JcaVersionedKeyStoreCacheBuilder {
+
+    private final JcaVersionedKeyStoreCache target;
+
+    public JcaVersionedKeyStoreCacheBuilder() {
+        this.target = new JcaVersionedKeyStoreCache();
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyStoreResource(Resource resource) {
+        target.setKeyStoreResource(resource);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyStorePasswordResource(Resource resource) {
+        target.setKeyStorePasswordResource(resource);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyStorePassword(String password) {
+        target.setKeyStorePassword(password);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyPasswords(Map<String, Resource> keyPasswords) {
+        target.setKeyPasswords(keyPasswords);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyPasswordPatterns(Map<String, Resource> keyPasswordPatterns) {
+        target.setKeyPasswordPatterns(keyPasswordPatterns);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withDefaultKeyPassword(Resource resource) {
+        target.setDefaultKeyPassword(resource);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyPasswordRefreshDuration(Duration duration) {
+        target.setKeyPasswordRefresh(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyPasswordResolver(KeyPasswordResolver resolver) {
+        target.setKeyPasswordResolver(resolver);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyStoreWatch(boolean watch) {
+        target.setWatchKeyStore(watch);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyStoreType(String keyStoreType) {
+        target.setKeyStoreType(keyStoreType);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withKeyNamePattern(String keyNamePattern) {
+        target.setKeyNamePattern(keyNamePattern);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withExpireAfterWriteDuration(Duration duration) {
+        target.setExpireAfterWrite(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withNegativeCacheDuration(Duration duration) {
+        target.setNegativeCacheDuration(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withStaleGracePeriod(Duration duration) {
+        target.setStaleGracePeriod(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withRefreshAfterWriteDuration(Duration duration) {
+        target.setRefreshAfterWrite(duration);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withRefreshExecutor(Executor executor) {
+        target.setRefreshExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withTicker(Ticker ticker) {
+        target.setTicker(ticker);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withCacheEngine(CacheEngine cacheEngine) {
+        target.setCacheEngine(cacheEngine);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withMaximumSize(long maximumSize) {
+        target.setMaximumSize(maximumSize);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withMaximumWeight(long maximumWeight) {
+        target.setMaximumWeight(maximumWeight);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withWarmUp(boolean warmUp) {
+        target.setWarmUp(warmUp);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withWarmUpExecutor(Executor executor) {
+        target.setWarmUpExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withWarmUpLatestVersions(int latestVersions) {
+        target.setWarmUpLatestVersions(latestVersions);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withAsyncExecutor(Executor executor) {
+        target.setAsyncExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withMetrics(KeyCacheMetrics metrics) {
+        target.setMetrics(metrics);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withPooledCryptoInstances(boolean pooled) {
+        target.setPooledCryptoInstances(pooled);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withMaxIdleCryptoInstances(int maxIdle) {
+        target.setMaxIdleCryptoInstances(maxIdle);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCacheBuilder withOffHeapKeyMaterial(boolean offHeap) {
+        target.setOffHeapKeyMaterial(offHeap);
+        return this;
+    }
+
+    public JcaVersionedKeyStoreCache build() {
+        target.initialize();
+        return target;
+    }
+
+}
@@ -1,60 +1,170 @@
-package com.nightsky.keycache.builder;
-
-import com.nightsky.keycache.JcaVersionedSecretKeyCache;
-import java.time.Duration;
-import java.util.Map;
-import org.springframework.core.io.Resource;
-
-/**
- *
- * @author Chris
- */
-public class JcaVersionedSecretKeyCacheBuilder {
-
-    private final JcaVersionedSecretKeyCache target;
-
-    public JcaVersionedSecretKeyCacheBuilder() {
-        this.target = new JcaVersionedSecretKeyCache();
-    }
-
-    public JcaVersionedSecretKeyCacheBuilder withKeyStoreResource(Resource resource) {
-        target.setKeyStoreResource(resource);
-        return this;
-    }
-
-    public JcaVersionedSecretKeyCacheBuilder withKeyStorePasswordResource(Resource resource) {
-        target.setKeyStorePasswordResource(resource);
-        return this;
-    }
-
-    public JcaVersionedSecretKeyCacheBuilder withKeyStorePassword(String password) {
-        target.setKeyStorePassword(password);
-        return this;
-    }
-
-    public JcaVersionedSecretKeyCacheBuilder withKeyPasswords(Map<String, Resource> keyPasswords) {
-        target.setKeyPasswords(keyPasswords);
-        return this;
-    }
-
-    public JcaVersionedSecretKeyCacheBuilder withKeyStoreType(String keyStoreType) {
-        target.setKeyStoreType(keyStoreType);
-        return this;
-    }
-
-    public JcaVersionedSecretKeyCacheBuilder withKeyNamePattern(String keyNamePattern) {
-        target.setKeyNamePattern(keyNamePattern);
-        return this;
-    }
-
-    public JcaVersionedSecretKeyCacheBuilder withExpireAfterWriteDuration(Duration duration) {
-        target.setExpireAfterWrite(duration);
-        return this;
-    }
-
-    public JcaVersionedSecretKeyCache build() {
-        target.initialize();
-        return target;
-    }
-
-}
+package com.nightsky.keycache.builder;
+
+import com.google.common.base.Ticker;
+import com.nightsky.keycache.CacheEngine;
+import com.nightsky.keycache.JcaVersionedSecretKeyCache;
+import com.nightsky.keycache.metrics.KeyCacheMetrics;
+import com.nightsky.keycache.password.KeyPasswordResolver;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * @author Chris
+ */
+public class JcaVersionedSecretKeyCacheBuilder {
+
+    private final JcaVersionedSecretKeyCache target;
+
+    public JcaVersionedSecretKeyCacheBuilder() {
+        this.target = new JcaVersionedSecretKeyCache();
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyStoreResource(Resource resource) {
+        target.setKeyStoreResource(resource);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyStorePasswordResource(Resource resource) {
+        target.setKeyStorePasswordResource(resource);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyStorePassword(String password) {
+        target.setKeyStorePassword(password);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyPasswords(Map<String, Resource> keyPasswords) {
+        target.setKeyPasswords(keyPasswords);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyPasswordPatterns(Map<String, Resource> keyPasswordPatterns) {
+        target.setKeyPasswordPatterns(keyPasswordPatterns);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withDefaultKeyPassword(Resource resource) {
+        target.setDefaultKeyPassword(resource);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyPasswordRefreshDuration(Duration duration) {
+        target.setKeyPasswordRefresh(duration);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyPasswordResolver(KeyPasswordResolver resolver) {
+        target.setKeyPasswordResolver(resolver);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyStoreWatch(boolean watch) {
+        target.setWatchKeyStore(watch);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyStoreType(String keyStoreType) {
+        target.setKeyStoreType(keyStoreType);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withKeyNamePattern(String keyNamePattern) {
+        target.setKeyNamePattern(keyNamePattern);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withExpireAfterWriteDuration(Duration duration) {
+        target.setExpireAfterWrite(duration);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withNegativeCacheDuration(Duration duration) {
+        target.setNegativeCacheDuration(duration);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withStaleGracePeriod(Duration duration) {
+        target.setStaleGracePeriod(duration);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withRefreshAfterWriteDuration(Duration duration) {
+        target.setRefreshAfterWrite(duration);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withRefreshExecutor(Executor executor) {
+        target.setRefreshExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withTicker(Ticker ticker) {
+        target.setTicker(ticker);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withCacheEngine(CacheEngine cacheEngine) {
+        target.setCacheEngine(cacheEngine);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withMaximumSize(long maximumSize) {
+        target.setMaximumSize(maximumSize);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withMaximumWeight(long maximumWeight) {
+        target.setMaximumWeight(maximumWeight);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withWarmUp(boolean warmUp) {
+        target.setWarmUp(warmUp);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withWarmUpExecutor(Executor executor) {
+        target.setWarmUpExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withWarmUpLatestVersions(int latestVersions) {
+        target.setWarmUpLatestVersions(latestVersions);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withAsyncExecutor(Executor executor) {
+        target.setAsyncExecutor(executor);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withMetrics(KeyCacheMetrics metrics) {
+        target.setMetrics(metrics);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withPooledCryptoInstances(boolean pooled) {
+        target.setPooledCryptoInstances(pooled);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withMaxIdleCryptoInstances(int maxIdle) {
+        target.setMaxIdleCryptoInstances(maxIdle);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder withOffHeapKeyMaterial(boolean offHeap) {
+        target.setOffHeapKeyMaterial(offHeap);
+        return this;
+    }
+
+    public JcaVersionedSecretKeyCache build() {
+        target.initialize();
+        return target;
+    }
+
+}
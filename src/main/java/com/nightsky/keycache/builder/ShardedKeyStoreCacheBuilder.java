@@ -0,0 +1,55 @@
+package com.nightsky.keycache.builder;
+
+import com.nightsky.keycache.JcaVersionedKeyStoreCache;
+import com.nightsky.keycache.shard.KeyStoreRouter;
+import com.nightsky.keycache.shard.PatternKeyStoreRouter;
+import com.nightsky.keycache.shard.PrefixKeyStoreRouter;
+import com.nightsky.keycache.shard.ShardedKeyStoreCache;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ *
+ * @author Chris
+ */
+public class ShardedKeyStoreCacheBuilder {
+
+    private KeyStoreRouter router;
+
+    private Function<String, JcaVersionedKeyStoreCache> shardFactory;
+
+    private long maximumShards = ShardedKeyStoreCache.DEFAULT_MAXIMUM_SHARDS;
+
+    public ShardedKeyStoreCacheBuilder withRouter(KeyStoreRouter router) {
+        this.router = router;
+        return this;
+    }
+
+    public ShardedKeyStoreCacheBuilder withPrefixRoutes(Map<String, String> prefixShards) {
+        this.router = new PrefixKeyStoreRouter(prefixShards);
+        return this;
+    }
+
+    public ShardedKeyStoreCacheBuilder withPatternRoutes(Map<String, String> patternShards) {
+        this.router = new PatternKeyStoreRouter(patternShards);
+        return this;
+    }
+
+    public ShardedKeyStoreCacheBuilder withShardFactory(Function<String, JcaVersionedKeyStoreCache> shardFactory) {
+        this.shardFactory = shardFactory;
+        return this;
+    }
+
+    public ShardedKeyStoreCacheBuilder withMaximumShards(long maximumShards) {
+        this.maximumShards = maximumShards;
+        return this;
+    }
+
+    public ShardedKeyStoreCache build() {
+        if ( router == null || shardFactory == null )
+            throw new IllegalStateException("A router and a shard factory are required");
+
+        return new ShardedKeyStoreCache(router, shardFactory, maximumShards);
+    }
+
+}
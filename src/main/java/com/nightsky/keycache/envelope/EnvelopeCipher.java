@@ -0,0 +1,227 @@
+package com.nightsky.keycache.envelope;
+
+import com.nightsky.keycache.PooledVersionedSecretKey;
+import com.nightsky.keycache.VersionedSecretKey;
+import com.nightsky.keycache.VersionedSecretKeyCache;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts payloads with the latest version of a named key and decrypts them
+ * with whichever version they were encrypted with. Each envelope starts with
+ * a compact header holding the format and the key version, followed by the
+ * IV, the ciphertext and the authentication tag:
+ * <pre>
+ * | format (1) | key version (4) | IV (12) | ciphertext (n) | tag (16) |
+ * </pre>
+ * Payloads are encrypted with AES-GCM and the header is authenticated along
+ * with the ciphertext. Keys handed out as {@link PooledVersionedSecretKey}
+ * instances reuse their pooled ciphers.
+ *
+ * @author Chris
+ */
+public class EnvelopeCipher {
+
+    public static final byte FORMAT = 1;
+
+    public static final int HEADER_LENGTH = 1 + Integer.BYTES;
+
+    public static final int IV_LENGTH = 12;
+
+    public static final int TAG_LENGTH = 16;
+
+    public static final int OVERHEAD = HEADER_LENGTH + IV_LENGTH + TAG_LENGTH;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final VersionedSecretKeyCache keyCache;
+
+    private final String keyName;
+
+    private final SecureRandom random;
+
+    public EnvelopeCipher(VersionedSecretKeyCache keyCache, String keyName) {
+        this(keyCache, keyName, new SecureRandom());
+    }
+
+    public EnvelopeCipher(VersionedSecretKeyCache keyCache, String keyName, SecureRandom random) {
+        this.keyCache = keyCache;
+        this.keyName = keyName;
+        this.random = random;
+    }
+
+    /**
+     * @param plaintextLength The length of a payload
+     * @return the length of the envelope of the payload
+     */
+    public static int getEnvelopeLength(int plaintextLength) {
+        return plaintextLength + OVERHEAD;
+    }
+
+    /**
+     * @param envelope An envelope, positioned at its header
+     * @return the key version the envelope was encrypted with
+     * @throws IllegalArgumentException If the envelope is truncated or not in
+     *         a known format
+     */
+    public static int getKeyVersion(ByteBuffer envelope) {
+        if ( envelope.remaining() < OVERHEAD )
+            throw new IllegalArgumentException("Envelope truncated: " + envelope.remaining() + " bytes");
+        if ( envelope.get(envelope.position()) != FORMAT )
+            throw new IllegalArgumentException("Unknown envelope format " + envelope.get(envelope.position()));
+
+        return envelope.getInt(envelope.position() + 1);
+    }
+
+    public byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+        ByteBuffer envelope = ByteBuffer.allocate(getEnvelopeLength(plaintext.length));
+        encrypt(ByteBuffer.wrap(plaintext), envelope);
+        return envelope.array();
+    }
+
+    public byte[] decrypt(byte[] envelope) throws GeneralSecurityException {
+        ByteBuffer plaintext = ByteBuffer.allocate(Math.max(0, envelope.length - OVERHEAD));
+        decrypt(ByteBuffer.wrap(envelope), plaintext);
+        return plaintext.array();
+    }
+
+    /**
+     * Encrypts the remaining bytes of a payload into an envelope without
+     * intermediate copies; either buffer may be direct.
+     *
+     * @param plaintext The payload, consumed up to its limit
+     * @param envelope The buffer the envelope is written to, which must have
+     *        at least {@link #getEnvelopeLength(int)} bytes remaining
+     * @return the number of bytes written
+     * @throws GeneralSecurityException If the payload could not be encrypted,
+     *         in which case the envelope length of bytes from the position of
+     *         the envelope buffer is zeroed, and neither buffer's position is
+     *         moved
+     */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer envelope) throws GeneralSecurityException {
+        if ( envelope.remaining() < getEnvelopeLength(plaintext.remaining()) )
+            throw new ShortBufferException("Envelope buffer too small");
+
+        VersionedSecretKey key = keyCache.getKey(keyName);
+        if ( key == null )
+            throw new KeyException("No versions of key " + keyName + " available");
+
+        byte [] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+
+        byte [] header = header(key.getVersion());
+        int start = envelope.position();
+        int plaintextStart = plaintext.position();
+        int length = getEnvelopeLength(plaintext.remaining());
+
+        Cipher cipher = borrowCipher(key, Cipher.ENCRYPT_MODE, new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, iv));
+        try {
+            envelope.put(header).put(iv);
+            cipher.updateAAD(header);
+            cipher.doFinal(plaintext, envelope);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // Leave neither the header nor any partial ciphertext behind:
+            for (int i = start; i < start + length; i++) {
+                envelope.put(i, (byte) 0);
+            }
+            envelope.position(start);
+            plaintext.position(plaintextStart);
+            throw e;
+        } finally {
+            releaseCipher(key, cipher);
+        }
+
+        return envelope.position() - start;
+    }
+
+    /**
+     * Decrypts the remaining bytes of an envelope without intermediate
+     * copies; either buffer may be direct.
+     *
+     * @param envelope The envelope, consumed up to its limit
+     * @param plaintext The buffer the payload is written to, which must have
+     *        at least the envelope length minus {@link #OVERHEAD} bytes
+     *        remaining
+     * @return the number of bytes written
+     * @throws GeneralSecurityException If the envelope was not encrypted with
+     *         a known version of the key, or fails authentication, in which
+     *         case the envelope length minus {@link #OVERHEAD} of bytes from
+     *         the position of the plaintext buffer is zeroed, and neither
+     *         buffer's position is moved
+     * @throws IllegalArgumentException If the envelope is truncated or not in
+     *         a known format
+     */
+    public int decrypt(ByteBuffer envelope, ByteBuffer plaintext) throws GeneralSecurityException {
+        int version = getKeyVersion(envelope);
+        if ( plaintext.remaining() < envelope.remaining() - OVERHEAD )
+            throw new ShortBufferException("Plaintext buffer too small");
+
+        VersionedSecretKey key = keyCache.getKey(keyName, version);
+        if ( key == null )
+            throw new KeyException("Version " + version + " of key " + keyName + " not available");
+
+        // Read the header and IV without moving the envelope until it is
+        // decrypted:
+        byte [] header = new byte[HEADER_LENGTH];
+        byte [] iv = new byte[IV_LENGTH];
+        envelope.duplicate().get(header).get(iv);
+
+        int start = envelope.position();
+        int plaintextStart = plaintext.position();
+        int length = envelope.remaining() - OVERHEAD;
+
+        Cipher cipher = borrowCipher(key, Cipher.DECRYPT_MODE, new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, iv));
+        try {
+            envelope.position(start + HEADER_LENGTH + IV_LENGTH);
+            cipher.updateAAD(header);
+            return cipher.doFinal(envelope, plaintext);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // Leave no unauthenticated plaintext behind:
+            for (int i = plaintextStart; i < plaintextStart + length; i++) {
+                plaintext.put(i, (byte) 0);
+            }
+            envelope.position(start);
+            plaintext.position(plaintextStart);
+            throw e;
+        } finally {
+            releaseCipher(key, cipher);
+        }
+    }
+
+    /**
+     * @return the name of the key payloads are encrypted with
+     */
+    public String getKeyName() {
+        return keyName;
+    }
+
+    private static byte[] header(int version) {
+        return ByteBuffer.allocate(HEADER_LENGTH)
+            .put(FORMAT)
+            .putInt(version)
+                .array();
+    }
+
+    private static Cipher borrowCipher(VersionedSecretKey key, int opmode, AlgorithmParameterSpec params)
+        throws GeneralSecurityException
+    {
+        if ( key instanceof PooledVersionedSecretKey )
+            return ((PooledVersionedSecretKey) key).borrowCipher(TRANSFORMATION, opmode, params);
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(opmode, key, params);
+        return cipher;
+    }
+
+    private static void releaseCipher(VersionedSecretKey key, Cipher cipher) {
+        if ( key instanceof PooledVersionedSecretKey )
+            ((PooledVersionedSecretKey) key).releaseCipher(TRANSFORMATION, cipher);
+    }
+
+}
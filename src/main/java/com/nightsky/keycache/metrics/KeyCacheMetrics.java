@@ -0,0 +1,62 @@
+package com.nightsky.keycache.metrics;
+
+import com.google.common.cache.CacheStats;
+import java.util.function.Supplier;
+
+/**
+ * Receives measurements from a key cache. Implementations must be thread safe
+ * and should return quickly, since they are called on the threads that load
+ * keys.
+ *
+ * @author Chris
+ */
+public interface KeyCacheMetrics {
+
+    /**
+     * Called once when a cache is initialized.
+     *
+     * @param stats A live view of the cache's hit, miss, load and eviction counts
+     */
+    public void bindCacheStats(Supplier<CacheStats> stats);
+
+    /**
+     * Records the opening and loading of the key store resource.
+     *
+     * @param durationNanos The time taken to open and load the key store
+     * @param success Whether the key store was loaded
+     */
+    public void recordKeyStoreLoad(long durationNanos, boolean success);
+
+    /**
+     * Records that keys started or stopped being served from an expired copy
+     * of the key store because the key store could not be loaded.
+     *
+     * @param stale Whether keys are now being served from an expired copy
+     */
+    public void recordKeyStoreStale(boolean stale);
+
+    /**
+     * Records a scan of the key store's aliases.
+     *
+     * @param durationNanos The time taken to scan and index the aliases
+     * @param keyNameCount The number of distinct key names found
+     */
+    public void recordAliasScan(long durationNanos, int keyNameCount);
+
+    /**
+     * Records the recovery of a key from a loaded key store.
+     *
+     * @param keyName The name of the key
+     * @param durationNanos The time taken to recover the key
+     */
+    public void recordKeyDecrypt(String keyName, long durationNanos);
+
+    /**
+     * Records a failure to load or reload a key into the cache.
+     *
+     * @param keyName The name of the key
+     * @param cause The reason the key could not be loaded
+     */
+    public void recordLoadFailure(String keyName, Throwable cause);
+
+}
@@ -0,0 +1,129 @@
+package com.nightsky.keycache.metrics;
+
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Publishes key cache measurements to a Micrometer <code>MeterRegistry</code>.
+ * Cache statistics use Micrometer's standard cache meter names
+ * (<code>cache.gets</code>, <code>cache.evictions</code>,
+ * <code>cache.loads</code>); key store measurements are published as
+ * <code>keycache.*</code> timers, counters and gauges. All meters are tagged
+ * with the cache name, so each cache needs its own instance. Key names are
+ * not used as tags, since they come from callers and could create any number
+ * of meters.
+ * <p>
+ * Micrometer is an optional dependency of this library and must be added by
+ * applications that use this class.
+ *
+ * @author Chris
+ */
+public class MicrometerKeyCacheMetrics implements KeyCacheMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Tags tags;
+
+    private final Timer keyStoreLoads;
+
+    private final Timer failedKeyStoreLoads;
+
+    private final Timer aliasScans;
+
+    private final Timer keyDecrypts;
+
+    private final Counter loadFailures;
+
+    private final AtomicInteger keyNames;
+
+    private final AtomicInteger stale;
+
+    private volatile Supplier<CacheStats> stats;
+
+    public MicrometerKeyCacheMetrics(MeterRegistry registry, String cacheName) {
+        this.registry = registry;
+        this.tags = Tags.of("cache", cacheName);
+        this.keyStoreLoads = timer("keycache.keystore.load", "Time taken to open and load the key store")
+            .tag("result", "success")
+                .register(registry);
+        this.failedKeyStoreLoads = timer("keycache.keystore.load", "Time taken to open and load the key store")
+            .tag("result", "failure")
+                .register(registry);
+        this.aliasScans = timer("keycache.keystore.scan", "Time taken to scan and index the key store aliases")
+            .register(registry);
+        this.keyDecrypts = timer("keycache.key.decrypt", "Time taken to recover a key from the key store")
+            .register(registry);
+        this.loadFailures = Counter.builder("keycache.key.load.failures")
+            .description("Keys that could not be loaded or reloaded")
+            .tags(tags)
+                .register(registry);
+        this.keyNames = registry.gauge("keycache.keystore.keys", tags, new AtomicInteger());
+        this.stale = registry.gauge("keycache.keystore.stale", tags, new AtomicInteger());
+    }
+
+    @Override
+    public void bindCacheStats(Supplier<CacheStats> stats) {
+        this.stats = stats;
+
+        counter("cache.gets", "result", "hit", CacheStats::hitCount);
+        counter("cache.gets", "result", "miss", CacheStats::missCount);
+        counter("cache.loads", "result", "success", CacheStats::loadSuccessCount);
+        counter("cache.loads", "result", "failure", CacheStats::loadExceptionCount);
+        counter("cache.evictions", null, null, CacheStats::evictionCount);
+    }
+
+    @Override
+    public void recordKeyStoreLoad(long durationNanos, boolean success) {
+        (success ? keyStoreLoads : failedKeyStoreLoads).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordKeyStoreStale(boolean stale) {
+        this.stale.set(stale ? 1 : 0);
+    }
+
+    @Override
+    public void recordAliasScan(long durationNanos, int keyNameCount) {
+        aliasScans.record(durationNanos, TimeUnit.NANOSECONDS);
+        keyNames.set(keyNameCount);
+    }
+
+    @Override
+    public void recordKeyDecrypt(String keyName, long durationNanos) {
+        keyDecrypts.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordLoadFailure(String keyName, Throwable cause) {
+        loadFailures.increment();
+    }
+
+    private Timer.Builder timer(String name, String description) {
+        return Timer.builder(name)
+            .description(description)
+            .tags(tags)
+            .publishPercentileHistogram();
+    }
+
+    private void counter(String name, String tagKey, String tagValue, ToLongFunction<CacheStats> count) {
+        // Micrometer only holds a weak reference to this instance, which the
+        // cache keeps alive for as long as the cache itself is in use:
+        FunctionCounter.Builder<MicrometerKeyCacheMetrics> builder = FunctionCounter
+            .builder(name, this, metrics -> count.applyAsLong(metrics.stats.get()))
+            .tags(tags);
+
+        if ( tagKey != null )
+            builder.tag(tagKey, tagValue);
+
+        builder.register(registry);
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.nightsky.keycache.metrics;
+
+import com.google.common.cache.CacheStats;
+import java.util.function.Supplier;
+
+/**
+ * Discards all measurements. This is the default for all key caches.
+ *
+ * @author Chris
+ */
+public class NoOpKeyCacheMetrics implements KeyCacheMetrics {
+
+    public static final NoOpKeyCacheMetrics INSTANCE = new NoOpKeyCacheMetrics();
+
+    @Override
+    public void bindCacheStats(Supplier<CacheStats> stats) {
+    }
+
+    @Override
+    public void recordKeyStoreLoad(long durationNanos, boolean success) {
+    }
+
+    @Override
+    public void recordKeyStoreStale(boolean stale) {
+    }
+
+    @Override
+    public void recordAliasScan(long durationNanos, int keyNameCount) {
+    }
+
+    @Override
+    public void recordKeyDecrypt(String keyName, long durationNanos) {
+    }
+
+    @Override
+    public void recordLoadFailure(String keyName, Throwable cause) {
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.nightsky.keycache.password;
+
+/**
+ * Resolves the passwords that protect the entries of a key store.
+ * Implementations must be thread safe.
+ *
+ * @author Chris
+ */
+public interface KeyPasswordResolver {
+
+    /**
+     * @param alias The alias of a key store entry
+     * @return a copy of the password protecting the entry, which the caller
+     *         may clear once done with it, or <code>null</code> if no
+     *         password is configured for the alias
+     * @throws Exception If the password could not be read
+     */
+    public char[] getKeyPassword(String alias) throws Exception;
+
+}
@@ -0,0 +1,126 @@
+package com.nightsky.keycache.password;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.io.ByteStreams;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.springframework.core.io.Resource;
+
+/**
+ * Resolves key passwords from <code>Resource</code>s. An alias is looked up
+ * in the map of per-alias passwords first, then matched against the password
+ * patterns in the order they were added, and finally falls back to the
+ * default password, if any. Each resource is read at most once per refresh
+ * interval, however many aliases share it.
+ *
+ * @author Chris
+ */
+public class ResourceKeyPasswordResolver implements KeyPasswordResolver {
+
+    private final Map<String, Resource> keyPasswords;
+
+    private final List<PatternPassword> patternPasswords;
+
+    private final Resource defaultPassword;
+
+    private final LoadingCache<Resource, char[]> passwords;
+
+    public ResourceKeyPasswordResolver(
+        Map<String, Resource> keyPasswords,
+        Map<String, Resource> keyPasswordPatterns,
+        Resource defaultPassword,
+        Duration refreshInterval)
+    {
+        this.keyPasswords = keyPasswords == null ? Collections.emptyMap() : keyPasswords;
+        this.defaultPassword = defaultPassword;
+
+        List<PatternPassword> patterns = new ArrayList<>();
+        if ( keyPasswordPatterns != null ) {
+            for (Map.Entry<String, Resource> entry : keyPasswordPatterns.entrySet()) {
+                patterns.add(new PatternPassword(Pattern.compile(entry.getKey()), entry.getValue()));
+            }
+        }
+        this.patternPasswords = patterns;
+
+        this.passwords = CacheBuilder.newBuilder()
+            .expireAfterWrite(refreshInterval)
+                .build(CacheLoader.from(ResourceKeyPasswordResolver::readPassword));
+    }
+
+    @Override
+    public char[] getKeyPassword(String alias) throws Exception {
+        Resource resource = getPasswordResource(alias);
+        return resource == null ? null : passwords.get(resource).clone();
+    }
+
+    /**
+     * @param alias The alias of a key store entry
+     * @return the resource holding the password of the entry, or
+     *         <code>null</code> if no password is configured for it
+     */
+    public Resource getPasswordResource(String alias) {
+        Resource resource = keyPasswords.get(alias);
+        if ( resource != null )
+            return resource;
+
+        for (PatternPassword patternPassword : patternPasswords) {
+            if ( patternPassword.pattern.matcher(alias).matches() )
+                return patternPassword.resource;
+        }
+
+        return defaultPassword;
+    }
+
+    /**
+     * Reads a UTF-8 encoded password without creating an intermediate
+     * <code>String</code>.
+     *
+     * @param resource The resource holding the password
+     * @return the password
+     */
+    public static char[] readPassword(Resource resource) {
+        byte [] bytes = null;
+        CharBuffer chars = null;
+
+        try ( InputStream is = resource.getInputStream() ) {
+            bytes = ByteStreams.toByteArray(is);
+            chars = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes));
+
+            char [] password = new char[chars.remaining()];
+            chars.get(password);
+            return password;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to read password from " + resource.getDescription(), e);
+        } finally {
+            if ( bytes != null )
+                Arrays.fill(bytes, (byte) 0);
+            if ( chars != null && chars.hasArray() )
+                Arrays.fill(chars.array(), '\0');
+        }
+    }
+
+    private static class PatternPassword {
+
+        private final Pattern pattern;
+
+        private final Resource resource;
+
+        private PatternPassword(Pattern pattern, Resource resource) {
+            this.pattern = pattern;
+            this.resource = resource;
+        }
+
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.nightsky.keycache.shard;
+
+/**
+ * Decides which key store shard holds the versions of a key. Implementations
+ * must be thread safe and should not allocate more than necessary, since
+ * every lookup is routed.
+ *
+ * @author Chris
+ */
+public interface KeyStoreRouter {
+
+    /**
+     * @param keyName The name of a key, without its version
+     * @return the identifier of the shard holding the key, or
+     *         <code>null</code> if no shard holds it
+     */
+    public String getShard(String keyName);
+
+}
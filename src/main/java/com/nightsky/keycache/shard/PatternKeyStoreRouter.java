@@ -0,0 +1,75 @@
+package com.nightsky.keycache.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Routes keys to shards by matching their names against regular expressions,
+ * in the order the patterns were given. A shard may refer to the groups of
+ * its pattern, so that a single pattern such as <code>(tenant\d+)-.*</code>
+ * with the shard <code>$1</code> routes every tenant to its own shard.
+ *
+ * @author Chris
+ */
+public class PatternKeyStoreRouter implements KeyStoreRouter {
+
+    private final List<PatternShard> patternShards;
+
+    private final String defaultShard;
+
+    /**
+     * @param patternShards The shard of every key name pattern
+     */
+    public PatternKeyStoreRouter(Map<String, String> patternShards) {
+        this(patternShards, null);
+    }
+
+    /**
+     * @param patternShards The shard of every key name pattern
+     * @param defaultShard The shard of keys that match no pattern, or
+     *        <code>null</code> if such keys do not exist
+     */
+    public PatternKeyStoreRouter(Map<String, String> patternShards, String defaultShard) {
+        List<PatternShard> patterns = new ArrayList<>();
+        for (Map.Entry<String, String> entry : patternShards.entrySet()) {
+            patterns.add(new PatternShard(Pattern.compile(entry.getKey()), entry.getValue()));
+        }
+
+        this.patternShards = patterns;
+        this.defaultShard = defaultShard;
+    }
+
+    @Override
+    public String getShard(String keyName) {
+        for (PatternShard patternShard : patternShards) {
+            Matcher m = patternShard.pattern.matcher(keyName);
+            if ( m.matches() ) {
+                if ( patternShard.shard.indexOf('$') < 0 )
+                    return patternShard.shard;
+
+                StringBuffer shard = new StringBuffer();
+                m.appendReplacement(shard, patternShard.shard);
+                return shard.toString();
+            }
+        }
+
+        return defaultShard;
+    }
+
+    private static class PatternShard {
+
+        private final Pattern pattern;
+
+        private final String shard;
+
+        private PatternShard(Pattern pattern, String shard) {
+            this.pattern = pattern;
+            this.shard = shard;
+        }
+
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.nightsky.keycache.shard;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes keys to shards by the prefix of their names. When several prefixes
+ * match a key name, the longest one wins.
+ *
+ * @author Chris
+ */
+public class PrefixKeyStoreRouter implements KeyStoreRouter {
+
+    private final List<Map.Entry<String, String>> prefixes;
+
+    private final String defaultShard;
+
+    /**
+     * @param prefixShards The shard of every key name prefix
+     */
+    public PrefixKeyStoreRouter(Map<String, String> prefixShards) {
+        this(prefixShards, null);
+    }
+
+    /**
+     * @param prefixShards The shard of every key name prefix
+     * @param defaultShard The shard of keys that match no prefix, or
+     *        <code>null</code> if such keys do not exist
+     */
+    public PrefixKeyStoreRouter(Map<String, String> prefixShards, String defaultShard) {
+        List<Map.Entry<String, String>> sorted = new ArrayList<>(prefixShards.entrySet());
+        sorted.sort(Comparator.comparingInt((Map.Entry<String, String> e) -> e.getKey().length()).reversed());
+
+        this.prefixes = sorted;
+        this.defaultShard = defaultShard;
+    }
+
+    @Override
+    public String getShard(String keyName) {
+        for (Map.Entry<String, String> prefix : prefixes) {
+            if ( keyName.startsWith(prefix.getKey()) )
+                return prefix.getValue();
+        }
+
+        return defaultShard;
+    }
+
+}
@@ -0,0 +1,348 @@
+package com.nightsky.keycache.shard;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.nightsky.keycache.JcaVersionedKeyStoreCache;
+import com.nightsky.keycache.VersionedKeyPair;
+import com.nightsky.keycache.VersionedKeyPairCache;
+import com.nightsky.keycache.VersionedSecretKey;
+import com.nightsky.keycache.VersionedSecretKeyCache;
+import com.nightsky.keycache.builder.ShardedKeyStoreCacheBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches keys spread over many key stores, such as one key store per tenant.
+ * A {@link KeyStoreRouter} maps every key name to the shard holding it, and
+ * each shard is a {@link JcaVersionedKeyStoreCache} of its own, created by
+ * the shard factory the first time one of its keys is requested. Since each
+ * shard loads, scans and refreshes only its own key store, the cost of a
+ * lookup or a reload depends on the size of one shard rather than on the
+ * number of keys across all shards.
+ * <p>
+ * Shard identifiers may be derived from the requested key names, so the
+ * number of open shards is bounded. When the bound is reached the shards used
+ * least recently are closed; a closed shard stops watching its key store but
+ * keeps serving keys to callers that still hold it, and is opened again the
+ * next time one of its keys is requested.
+ * <p>
+ * Keys are retrieved through the {@link #asSecretKeyCache()} and
+ * {@link #asKeyPairCache()} views. Keys that no shard holds are reported and
+ * returned as <code>null</code>, as with any other missing key.
+ *
+ * @author Chris
+ */
+public class ShardedKeyStoreCache implements AutoCloseable {
+
+    public static final long DEFAULT_MAXIMUM_SHARDS = 1024L;
+
+    private final Logger log;
+
+    private final KeyStoreRouter router;
+
+    private final Function<String, JcaVersionedKeyStoreCache> shardFactory;
+
+    private final Cache<String, JcaVersionedKeyStoreCache> shards;
+
+    private final VersionedSecretKeyCache secretKeyView;
+
+    private final VersionedKeyPairCache keyPairView;
+
+    /**
+     * @param router The router that maps key names to shards
+     * @param shardFactory The factory that creates and initializes the cache
+     *        of a shard, given the shard's identifier
+     */
+    public ShardedKeyStoreCache(KeyStoreRouter router, Function<String, JcaVersionedKeyStoreCache> shardFactory) {
+        this(router, shardFactory, DEFAULT_MAXIMUM_SHARDS);
+    }
+
+    /**
+     * @param router The router that maps key names to shards
+     * @param shardFactory The factory that creates and initializes the cache
+     *        of a shard, given the shard's identifier
+     * @param maximumShards The number of shards that may be open at once
+     */
+    public ShardedKeyStoreCache(
+        KeyStoreRouter router, Function<String, JcaVersionedKeyStoreCache> shardFactory, long maximumShards)
+    {
+        this.log = LoggerFactory.getLogger(getClass());
+        this.router = router;
+        this.shardFactory = shardFactory;
+        this.shards = CacheBuilder.newBuilder()
+            .maximumSize(maximumShards)
+            .removalListener(this::onShardRemoval)
+                .build();
+        this.secretKeyView = new SecretKeyView();
+        this.keyPairView = new KeyPairView();
+    }
+
+    public static ShardedKeyStoreCacheBuilder builder() {
+        return new ShardedKeyStoreCacheBuilder();
+    }
+
+    /**
+     * @return a view of the secret keys held by all shards
+     */
+    public VersionedSecretKeyCache asSecretKeyCache() {
+        return secretKeyView;
+    }
+
+    /**
+     * @return a view of the key pairs held by all shards
+     */
+    public VersionedKeyPairCache asKeyPairCache() {
+        return keyPairView;
+    }
+
+    /**
+     * Returns the cache of a shard, creating it if this is the first time the
+     * shard is used.
+     *
+     * @param shardId The identifier of the shard
+     * @return the cache of the shard, or <code>null</code> if it could not be
+     *         created
+     */
+    public JcaVersionedKeyStoreCache getShard(String shardId) {
+        JcaVersionedKeyStoreCache shard = shards.getIfPresent(shardId);
+        if ( shard != null )
+            return shard;
+
+        // Concurrent callers wait for one shard to be opened, without holding
+        // up callers of other shards while its key store is read:
+        try {
+            return shards.get(shardId, () -> {
+                log.debug("Opening key store shard {}", shardId);
+                return shardFactory.apply(shardId);
+            });
+        } catch (Exception e) {
+            log.error("Failed to open key store shard {}", shardId, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the identifiers of the shards that are open
+     */
+    public Set<String> getOpenShards() {
+        return Collections.unmodifiableSet(shards.asMap().keySet());
+    }
+
+    /**
+     * Closes every shard that is open.
+     */
+    @Override
+    public void close() {
+        shards.invalidateAll();
+    }
+
+    private void onShardRemoval(RemovalNotification<String, JcaVersionedKeyStoreCache> notification) {
+        log.debug("Closing key store shard {}", notification.getKey());
+        notification.getValue().close();
+    }
+
+    private JcaVersionedKeyStoreCache route(String keyName) {
+        String shardId = router.getShard(keyName);
+        if ( shardId == null ) {
+            log.error("Failed to retrieve key from cache: no key store shard holds {}", keyName);
+            return null;
+        }
+
+        return getShard(shardId);
+    }
+
+    private <T> T routeKey(String keyName, Function<JcaVersionedKeyStoreCache, T> lookup, T missing) {
+        JcaVersionedKeyStoreCache shard = route(keyName);
+        return shard == null ? missing : lookup.apply(shard);
+    }
+
+    /**
+     * Splits a batch by shard so that every shard is asked once for all of
+     * its keys.
+     */
+    private <T> Map<String, T> routeKeys(
+        Collection<String> keyNames,
+        BiFunction<JcaVersionedKeyStoreCache, Collection<String>, Map<String, T>> lookup)
+    {
+        Map<JcaVersionedKeyStoreCache, List<String>> batches = new LinkedHashMap<>();
+        for (String keyName : keyNames) {
+            JcaVersionedKeyStoreCache shard = route(keyName);
+            if ( shard != null )
+                batches.computeIfAbsent(shard, s -> new ArrayList<>()).add(keyName);
+        }
+
+        Map<String, T> keys = new LinkedHashMap<>();
+        batches.forEach((shard, batch) -> keys.putAll(lookup.apply(shard, batch)));
+
+        return keys;
+    }
+
+    private <T> Map<String, T> routeKeyVersions(
+        Map<String, Integer> keyVersions,
+        BiFunction<JcaVersionedKeyStoreCache, Map<String, Integer>, Map<String, T>> lookup)
+    {
+        Map<JcaVersionedKeyStoreCache, Map<String, Integer>> batches = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> keyVersion : keyVersions.entrySet()) {
+            JcaVersionedKeyStoreCache shard = route(keyVersion.getKey());
+            if ( shard != null ) {
+                batches.computeIfAbsent(shard, s -> new LinkedHashMap<>())
+                    .put(keyVersion.getKey(), keyVersion.getValue());
+            }
+        }
+
+        Map<String, T> keys = new LinkedHashMap<>();
+        batches.forEach((shard, batch) -> keys.putAll(lookup.apply(shard, batch)));
+
+        return keys;
+    }
+
+    private class SecretKeyView implements VersionedSecretKeyCache {
+
+        @Override
+        public VersionedSecretKey getKey(String keyName) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().getKey(keyName), null);
+        }
+
+        @Override
+        public VersionedSecretKey getKey(String keyName, Integer keyVersion) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().getKey(keyName, keyVersion), null);
+        }
+
+        @Override
+        public VersionedSecretKey getKey(String keyName, int keyVersion) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().getKey(keyName, keyVersion), null);
+        }
+
+        @Override
+        public Map<String, VersionedSecretKey> getKeys(Collection<String> keyNames) {
+            return routeKeys(keyNames, (shard, batch) -> shard.asSecretKeyCache().getKeys(batch));
+        }
+
+        @Override
+        public Map<String, VersionedSecretKey> getKeys(Map<String, Integer> keyVersions) {
+            return routeKeyVersions(keyVersions, (shard, batch) -> shard.asSecretKeyCache().getKeys(batch));
+        }
+
+        @Override
+        public int[] listVersions(String keyName) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().listVersions(keyName), new int[0]);
+        }
+
+        @Override
+        public List<VersionedSecretKey> getKeys(String keyName, int fromVersion, int toVersion) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().getKeys(keyName, fromVersion, toVersion),
+                Collections.emptyList());
+        }
+
+        @Override
+        public List<VersionedSecretKey> getLatestKeys(String keyName, int count) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().getLatestKeys(keyName, count),
+                Collections.emptyList());
+        }
+
+        @Override
+        public boolean containsKey(String keyName) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().containsKey(keyName), false);
+        }
+
+        @Override
+        public boolean containsKey(String keyName, int keyVersion) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().containsKey(keyName, keyVersion), false);
+        }
+
+        @Override
+        public CompletableFuture<VersionedSecretKey> getKeyAsync(String keyName) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().getKeyAsync(keyName),
+                CompletableFuture.completedFuture(null));
+        }
+
+        @Override
+        public CompletableFuture<VersionedSecretKey> getKeyAsync(String keyName, int keyVersion) {
+            return routeKey(keyName, shard -> shard.asSecretKeyCache().getKeyAsync(keyName, keyVersion),
+                CompletableFuture.completedFuture(null));
+        }
+
+    }
+
+    private class KeyPairView implements VersionedKeyPairCache {
+
+        @Override
+        public VersionedKeyPair getKeyPair(String keyPairName) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().getKeyPair(keyPairName), null);
+        }
+
+        @Override
+        public VersionedKeyPair getKeyPair(String keyPairName, Integer keyVersion) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().getKeyPair(keyPairName, keyVersion), null);
+        }
+
+        @Override
+        public VersionedKeyPair getKeyPair(String keyPairName, int keyVersion) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().getKeyPair(keyPairName, keyVersion), null);
+        }
+
+        @Override
+        public Map<String, VersionedKeyPair> getKeyPairs(Collection<String> keyPairNames) {
+            return routeKeys(keyPairNames, (shard, batch) -> shard.asKeyPairCache().getKeyPairs(batch));
+        }
+
+        @Override
+        public Map<String, VersionedKeyPair> getKeyPairs(Map<String, Integer> keyVersions) {
+            return routeKeyVersions(keyVersions, (shard, batch) -> shard.asKeyPairCache().getKeyPairs(batch));
+        }
+
+        @Override
+        public int[] listVersions(String keyPairName) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().listVersions(keyPairName), new int[0]);
+        }
+
+        @Override
+        public List<VersionedKeyPair> getKeyPairs(String keyPairName, int fromVersion, int toVersion) {
+            return routeKey(keyPairName,
+                shard -> shard.asKeyPairCache().getKeyPairs(keyPairName, fromVersion, toVersion),
+                Collections.emptyList());
+        }
+
+        @Override
+        public List<VersionedKeyPair> getLatestKeyPairs(String keyPairName, int count) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().getLatestKeyPairs(keyPairName, count),
+                Collections.emptyList());
+        }
+
+        @Override
+        public boolean containsKeyPair(String keyPairName) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().containsKeyPair(keyPairName), false);
+        }
+
+        @Override
+        public boolean containsKeyPair(String keyPairName, int keyVersion) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().containsKeyPair(keyPairName, keyVersion),
+                false);
+        }
+
+        @Override
+        public CompletableFuture<VersionedKeyPair> getKeyPairAsync(String keyPairName) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().getKeyPairAsync(keyPairName),
+                CompletableFuture.completedFuture(null));
+        }
+
+        @Override
+        public CompletableFuture<VersionedKeyPair> getKeyPairAsync(String keyPairName, int keyVersion) {
+            return routeKey(keyPairName, shard -> shard.asKeyPairCache().getKeyPairAsync(keyPairName, keyVersion),
+                CompletableFuture.completedFuture(null));
+        }
+
+    }
+
+}
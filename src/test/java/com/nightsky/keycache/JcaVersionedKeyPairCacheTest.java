@@ -1,79 +1,209 @@
-package com.nightsky.keycache;
-
-import com.nightsky.keycache.factory.KeyPairFactory;
-import com.nightsky.keycache.factory.KeyStoreFactory;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateException;
-import java.time.Duration;
-import java.util.Map;
-import org.apache.commons.lang3.RandomStringUtils;
-import static org.assertj.core.api.Assertions.assertThat;
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
-
-/**
- *
- * @author Chris
- */
-@RunWith(JUnit4.class)
-public class JcaVersionedKeyPairCacheTest {
-
-    private JcaVersionedKeyPairCache subject;
-
-    @Before
-    public void setUp()
-        throws KeyStoreException, CertificateException,
-               NoSuchAlgorithmException, IOException
-    {
-        // Initialize a new key store:
-        String keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
-        KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
-
-        // Create a few random key pairs named according to the requirements
-        // of the JcaVersionedKeyPairCache:
-        Map<String, Resource> keyPasswords =
-            KeyPairFactory.createRandomRsaKeyPairs(keyStore, 5);
-
-
-        // Save the KeyStore into memory:
-        byte [] rawKeyStore = null;
-        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
-            keyStore.store(os, keyStorePassword.toCharArray());
-            rawKeyStore = os.toByteArray();
-        }
-
-        // Create the test subject with the random key store data:
-        subject = JcaVersionedKeyPairCache.builder()
-            .withKeyPasswords(keyPasswords)
-            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
-            .withKeyStoreResource(new ByteArrayResource(rawKeyStore))
-            .withKeyStoreType(KeyStoreFactory.JCE_KEYSTORE_TYPE)
-            .withExpireAfterWriteDuration(Duration.ofMinutes(60L))
-                .build();
-    }
-
-    @Test
-    public void shouldGetMostRecentVersionOfKeyPair() {
-        VersionedKeyPair keyPair = subject.getKeyPair(KeyPairFactory.KEY_NAME);
-        assertThat(keyPair).isNotNull();
-        assertThat(keyPair.getVersion()).isEqualTo(5);
-    }
-
-    @Test
-    public void shouldGetSpecificVersionOfKeyPair() {
-        int version = 3;
-        VersionedKeyPair keyPair = subject.getKeyPair(KeyPairFactory.KEY_NAME, version);
-        assertThat(keyPair).isNotNull();
-        assertThat(keyPair.getVersion()).isEqualTo(version);
-    }
-
-}
+package com.nightsky.keycache;
+
+import com.nightsky.keycache.builder.JcaVersionedKeyPairCacheBuilder;
+import com.nightsky.keycache.factory.KeyPairFactory;
+import com.nightsky.keycache.factory.KeyStoreFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.RandomStringUtils;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class JcaVersionedKeyPairCacheTest {
+
+    private JcaVersionedKeyPairCache subject;
+
+    private String keyStorePassword;
+
+    private Map<String, Resource> keyPasswords;
+
+    private byte [] rawKeyStore;
+
+    @Before
+    public void setUp()
+        throws KeyStoreException, CertificateException,
+               NoSuchAlgorithmException, IOException
+    {
+        // Initialize a new key store:
+        keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
+        KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
+
+        // Create a few random key pairs named according to the requirements
+        // of the JcaVersionedKeyPairCache:
+        keyPasswords =
+            KeyPairFactory.createRandomRsaKeyPairs(keyStore, 5);
+
+        // Save the KeyStore into memory:
+        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
+            keyStore.store(os, keyStorePassword.toCharArray());
+            rawKeyStore = os.toByteArray();
+        }
+
+        // Create the test subject with the random key store data:
+        subject = newSubjectBuilder().build();
+    }
+
+    private JcaVersionedKeyPairCacheBuilder newSubjectBuilder() {
+        return JcaVersionedKeyPairCache.builder()
+            .withKeyPasswords(keyPasswords)
+            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
+            .withKeyStoreResource(new ByteArrayResource(rawKeyStore))
+            .withKeyStoreType(KeyStoreFactory.JCE_KEYSTORE_TYPE)
+            .withExpireAfterWriteDuration(Duration.ofMinutes(60L));
+    }
+
+    @Test
+    public void shouldGetMostRecentVersionOfKeyPair() {
+        VersionedKeyPair keyPair = subject.getKeyPair(KeyPairFactory.KEY_NAME);
+        assertThat(keyPair).isNotNull();
+        assertThat(keyPair.getVersion()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldGetSpecificVersionOfKeyPair() {
+        int version = 3;
+        VersionedKeyPair keyPair = subject.getKeyPair(KeyPairFactory.KEY_NAME, version);
+        assertThat(keyPair).isNotNull();
+        assertThat(keyPair.getVersion()).isEqualTo(version);
+    }
+
+    @Test
+    public void shouldGetKeyPairAsynchronously() {
+        VersionedKeyPair keyPair = subject.getKeyPairAsync(KeyPairFactory.KEY_NAME).join();
+        assertThat(keyPair).isNotNull();
+        assertThat(keyPair.getVersion()).isEqualTo(5);
+
+        keyPair = subject.getKeyPairAsync(KeyPairFactory.KEY_NAME, 2).join();
+        assertThat(keyPair).isNotNull();
+        assertThat(keyPair.getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldGetKeyPairsInBatch() {
+        Map<String, VersionedKeyPair> keyPairs =
+            subject.getKeyPairs(Arrays.asList(KeyPairFactory.KEY_NAME, "missing_key"));
+        assertThat(keyPairs).containsOnlyKeys(KeyPairFactory.KEY_NAME);
+        assertThat(keyPairs.get(KeyPairFactory.KEY_NAME).getVersion()).isEqualTo(5);
+
+        Map<String, Integer> keyVersions = new HashMap<>();
+        keyVersions.put(KeyPairFactory.KEY_NAME, 2);
+        keyVersions.put("missing_key", 1);
+        keyPairs = subject.getKeyPairs(keyVersions);
+        assertThat(keyPairs).containsOnlyKeys(KeyPairFactory.KEY_NAME);
+        assertThat(keyPairs.get(KeyPairFactory.KEY_NAME).getVersion()).isEqualTo(2);
+
+        // Both versions were recovered in one batch each:
+        assertThat(subject.getStats().loadCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldGetRangesOfKeyPairVersions() {
+        assertThat(subject.listVersions(KeyPairFactory.KEY_NAME)).containsExactly(1, 2, 3, 4, 5);
+        assertThat(subject.listVersions("missing_key")).isEmpty();
+
+        assertThat(subject.getKeyPairs(KeyPairFactory.KEY_NAME, 2, 4))
+            .extracting(VersionedKeyPair::getVersion)
+                .containsExactly(2, 3, 4);
+        assertThat(subject.getLatestKeyPairs(KeyPairFactory.KEY_NAME, 2))
+            .extracting(VersionedKeyPair::getVersion)
+                .containsExactly(5, 4);
+        assertThat(subject.getKeyPairs(KeyPairFactory.KEY_NAME, 6, 9)).isEmpty();
+    }
+
+    @Test
+    public void shouldServeReloadedKeyPairAfterRefreshInterval() {
+        ManualTicker ticker = new ManualTicker();
+        SwappableResource keyStoreResource = new SwappableResource(rawKeyStore);
+        List<Runnable> refreshes = new ArrayList<>();
+        JcaVersionedKeyPairCache refreshingSubject = newRefreshingSubject(ticker, keyStoreResource, refreshes);
+
+        VersionedKeyPair keyPair = refreshingSubject.getKeyPair(KeyPairFactory.KEY_NAME, 3);
+
+        // Replace the key pair with a new one:
+        KeyStore keyStore = KeyStoreFactory.loadKeyStore(rawKeyStore, KeyStoreFactory.JCE_KEYSTORE_TYPE, keyStorePassword);
+        keyPasswords.putAll(KeyPairFactory.createRandomRsaKeyPairs(keyStore, KeyPairFactory.KEY_NAME, 3, 3));
+        keyStoreResource.setContent(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+
+        // The old key pair is served while it is reloaded in the background:
+        ticker.advance(Duration.ofMinutes(2L));
+        assertThat(refreshingSubject.getKeyPair(KeyPairFactory.KEY_NAME, 3)).isSameAs(keyPair);
+        runAll(refreshes);
+
+        VersionedKeyPair reloadedKeyPair = refreshingSubject.getKeyPair(KeyPairFactory.KEY_NAME, 3);
+        assertThat(reloadedKeyPair.getVersion()).isEqualTo(3);
+        assertThat(reloadedKeyPair.getPublic()).isNotEqualTo(keyPair.getPublic());
+        assertThat(keyStoreResource.getReads()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldStopServingKeyPairWhoseAliasIsGoneOnReload() throws KeyStoreException {
+        ManualTicker ticker = new ManualTicker();
+        SwappableResource keyStoreResource = new SwappableResource(rawKeyStore);
+        List<Runnable> refreshes = new ArrayList<>();
+        JcaVersionedKeyPairCache refreshingSubject = newRefreshingSubject(ticker, keyStoreResource, refreshes);
+
+        VersionedKeyPair keyPair = refreshingSubject.getKeyPair(KeyPairFactory.KEY_NAME, 3);
+
+        // Remove the key pair from the key store:
+        KeyStore keyStore = KeyStoreFactory.loadKeyStore(rawKeyStore, KeyStoreFactory.JCE_KEYSTORE_TYPE, keyStorePassword);
+        keyStore.deleteEntry(KeyPairFactory.KEY_NAME + "-v3");
+        keyStoreResource.setContent(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+
+        ticker.advance(Duration.ofMinutes(2L));
+        assertThat(refreshingSubject.getKeyPair(KeyPairFactory.KEY_NAME, 3)).isSameAs(keyPair);
+
+        // The key pair reload finds nothing, which drops the old key pair:
+        runAll(refreshes);
+        assertThat(refreshingSubject.size()).isZero();
+        assertThat(refreshingSubject.getKeyPair(KeyPairFactory.KEY_NAME, 3)).isNull();
+        assertThat(refreshingSubject.getKeyPair(KeyPairFactory.KEY_NAME).getVersion()).isEqualTo(5);
+    }
+
+    /**
+     * Creates a subject that refreshes key pairs after a minute, queueing
+     * every background refresh until the test runs it.
+     */
+    private JcaVersionedKeyPairCache newRefreshingSubject(
+        ManualTicker ticker, SwappableResource keyStoreResource, List<Runnable> refreshes)
+    {
+        return newSubjectBuilder()
+            .withKeyStoreResource(keyStoreResource)
+            .withRefreshAfterWriteDuration(Duration.ofMinutes(1L))
+            .withRefreshExecutor(refreshes::add)
+            .withAsyncExecutor(Runnable::run)
+            .withTicker(ticker)
+                .build();
+    }
+
+    /**
+     * Runs the queued refreshes, most recently queued first, so that the key
+     * pair reload loads the key store rather than the key store refresh.
+     */
+    private static void runAll(List<Runnable> refreshes) {
+        while ( !refreshes.isEmpty() ) {
+            refreshes.remove(refreshes.size() - 1).run();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.nightsky.keycache;
+
+import com.nightsky.keycache.builder.JcaVersionedKeyStoreCacheBuilder;
+import com.nightsky.keycache.factory.KeyPairFactory;
+import com.nightsky.keycache.factory.KeyStoreFactory;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import com.nightsky.keycache.metrics.KeyCacheMetrics;
+import com.nightsky.keycache.metrics.NoOpKeyCacheMetrics;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.RandomStringUtils;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class JcaVersionedKeyStoreCacheTest {
+
+    private static final String SECRET_KEY_NAME = "secret-key";
+
+    private static final String KEY_PAIR_NAME = "key-pair";
+
+    private JcaVersionedKeyStoreCache subject;
+
+    private AtomicInteger keyStoreLoads;
+
+    private String keyStorePassword;
+
+    private Map<String, Resource> keyPasswords;
+
+    private byte [] rawKeyStore;
+
+    @Before
+    public void setUp()
+        throws KeyStoreException, CertificateException,
+               NoSuchAlgorithmException, IOException
+    {
+        // Initialize a new key store holding both secret keys and key pairs:
+        keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
+        KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
+
+        keyPasswords = new HashMap<>();
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, SECRET_KEY_NAME, 3));
+        keyPasswords.putAll(KeyPairFactory.createRandomRsaKeyPairs(keyStore, KEY_PAIR_NAME, 2));
+
+        // Save the KeyStore into memory:
+        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
+            keyStore.store(os, keyStorePassword.toCharArray());
+            rawKeyStore = os.toByteArray();
+        }
+
+        keyStoreLoads = new AtomicInteger();
+
+        // Create the test subject with the random key store data:
+        subject = newSubjectBuilder().build();
+    }
+
+    private JcaVersionedKeyStoreCacheBuilder newSubjectBuilder() {
+        KeyCacheMetrics metrics = new NoOpKeyCacheMetrics() {
+            @Override
+            public void recordKeyStoreLoad(long durationNanos, boolean success) {
+                keyStoreLoads.incrementAndGet();
+            }
+        };
+
+        return JcaVersionedKeyStoreCache.builder()
+            .withKeyPasswords(keyPasswords)
+            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
+            .withKeyStoreResource(new ByteArrayResource(rawKeyStore))
+            .withKeyStoreType(KeyStoreFactory.JCE_KEYSTORE_TYPE)
+            .withExpireAfterWriteDuration(Duration.ofMinutes(60L))
+            .withMetrics(metrics);
+    }
+
+    @Test
+    public void shouldServeBothKindsOfKeysFromOneKeyStoreLoad() {
+        VersionedSecretKey key = subject.asSecretKeyCache().getKey(SECRET_KEY_NAME);
+        assertThat(key).isNotNull();
+        assertThat(key.getVersion()).isEqualTo(3);
+
+        VersionedKeyPair keyPair = subject.asKeyPairCache().getKeyPair(KEY_PAIR_NAME, 1);
+        assertThat(keyPair).isNotNull();
+        assertThat(keyPair.getVersion()).isEqualTo(1);
+
+        assertThat(keyStoreLoads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotServeKeysThroughTheViewOfTheOtherKind() {
+        assertThat(subject.asSecretKeyCache().getKey(KEY_PAIR_NAME)).isNull();
+        assertThat(subject.asKeyPairCache().getKeyPair(SECRET_KEY_NAME, 2)).isNull();
+    }
+
+    @Test
+    public void shouldPoolAndReleaseOffHeapSecretKeys() {
+        JcaVersionedKeyStoreCache offHeapSubject = newSubjectBuilder()
+            .withPooledCryptoInstances(true)
+            .withOffHeapKeyMaterial(true)
+            .withMaximumSize(1)
+                .build();
+
+        VersionedSecretKey evicted = offHeapSubject.asSecretKeyCache().getKey(SECRET_KEY_NAME, 1);
+        assertThat(evicted).isInstanceOf(PooledVersionedSecretKey.class);
+        assertThat(evicted.isDestroyed()).isFalse();
+
+        // Key pairs are neither pooled nor destroyed:
+        VersionedKeyPair keyPair = offHeapSubject.asKeyPairCache().getKeyPair(KEY_PAIR_NAME, 1);
+        assertThat(evicted.isDestroyed()).isTrue();
+        assertThat(offHeapSubject.asKeyPairCache().getKeyPair(KEY_PAIR_NAME, 1)).isSameAs(keyPair);
+    }
+
+}
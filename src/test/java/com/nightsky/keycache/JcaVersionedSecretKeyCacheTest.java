@@ -1,78 +1,786 @@
-package com.nightsky.keycache;
-
-import com.nightsky.keycache.factory.KeyStoreFactory;
-import com.nightsky.keycache.factory.SecretKeyFactory;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateException;
-import java.time.Duration;
-import java.util.Map;
-import org.apache.commons.lang3.RandomStringUtils;
-import static org.assertj.core.api.Assertions.assertThat;
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
-
-/**
- *
- * @author Chris
- */
-@RunWith(JUnit4.class)
-public class JcaVersionedSecretKeyCacheTest {
-
-    private JcaVersionedSecretKeyCache subject;
-
-    @Before
-    public void setUp()
-        throws KeyStoreException, CertificateException,
-               NoSuchAlgorithmException, IOException
-    {
-        // Initialize a new key store:
-        String keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
-        KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
-
-        // Create a few random secret keys named according to the requirements
-        // of the JcaVersionedSecretKeyCache:
-        Map<String, Resource> keyPasswords =
-            SecretKeyFactory.createRandomAesKeys(keyStore, 5);
-
-        // Save the KeyStore into memory:
-        byte [] rawKeyStore = null;
-        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
-            keyStore.store(os, keyStorePassword.toCharArray());
-            rawKeyStore = os.toByteArray();
-        }
-
-        // Create the test subject with the random key store data:
-        subject = JcaVersionedSecretKeyCache.builder()
-            .withKeyPasswords(keyPasswords)
-            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
-            .withKeyStoreResource(new ByteArrayResource(rawKeyStore))
-            .withKeyStoreType(KeyStoreFactory.JCE_KEYSTORE_TYPE)
-            .withExpireAfterWriteDuration(Duration.ofMinutes(60L))
-                .build();
-    }
-
-    @Test
-    public void shouldGetMostRecentVersionOfSecretKey() {
-        VersionedSecretKey key = subject.getKey(SecretKeyFactory.KEY_NAME);
-        assertThat(key).isNotNull();
-        assertThat(key.getVersion()).isEqualTo(5);
-    }
-
-    @Test
-    public void shouldGetSpecificVersionOfSecretKey() {
-        int version = 3;
-        VersionedSecretKey key = subject.getKey(SecretKeyFactory.KEY_NAME, version);
-        assertThat(key).isNotNull();
-        assertThat(key.getVersion()).isEqualTo(version);
-    }
-
-}
+package com.nightsky.keycache;
+
+import com.nightsky.keycache.builder.JcaVersionedSecretKeyCacheBuilder;
+import com.nightsky.keycache.factory.KeyPairFactory;
+import com.nightsky.keycache.factory.KeyStoreFactory;
+import com.nightsky.keycache.factory.SecretKeyCacheFixture;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
+import org.apache.commons.lang3.RandomStringUtils;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class JcaVersionedSecretKeyCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SecretKeyCacheFixture fixture;
+
+    private JcaVersionedSecretKeyCache subject;
+
+    private String keyStorePassword;
+
+    private Map<String, Resource> keyPasswords;
+
+    private byte [] rawKeyStore;
+
+    @Before
+    public void setUp() {
+        // Create a key store with a few random secret keys named according
+        // to the requirements of the JcaVersionedSecretKeyCache:
+        fixture = SecretKeyCacheFixture.create(5);
+        keyStorePassword = fixture.getKeyStorePassword();
+        keyPasswords = fixture.getKeyPasswords();
+        rawKeyStore = fixture.getRawKeyStore();
+
+        // Create the test subject with the random key store data:
+        subject = newSubjectBuilder().build();
+    }
+
+    private JcaVersionedSecretKeyCacheBuilder newSubjectBuilder() {
+        return fixture.newCacheBuilder();
+    }
+
+    @Test
+    public void shouldGetMostRecentVersionOfSecretKey() {
+        VersionedSecretKey key = subject.getKey(SecretKeyFactory.KEY_NAME);
+        assertThat(key).isNotNull();
+        assertThat(key.getVersion()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldGetSpecificVersionOfSecretKey() {
+        int version = 3;
+        VersionedSecretKey key = subject.getKey(SecretKeyFactory.KEY_NAME, version);
+        assertThat(key).isNotNull();
+        assertThat(key.getVersion()).isEqualTo(version);
+    }
+
+    @Test
+    public void shouldGetSecretKeyAsynchronously() {
+        VersionedSecretKey key = subject.getKeyAsync(SecretKeyFactory.KEY_NAME).join();
+        assertThat(key).isNotNull();
+        assertThat(key.getVersion()).isEqualTo(5);
+
+        key = subject.getKeyAsync(SecretKeyFactory.KEY_NAME, 2).join();
+        assertThat(key).isNotNull();
+        assertThat(key.getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldShareConcurrentAsynchronousLoadsOfSecretKey() {
+        List<Runnable> loads = new ArrayList<>();
+        JcaVersionedSecretKeyCache asyncSubject = newSubjectBuilder()
+            .withAsyncExecutor(loads::add)
+                .build();
+
+        CompletableFuture<VersionedSecretKey> first = asyncSubject.getKeyAsync(SecretKeyFactory.KEY_NAME, 4);
+        CompletableFuture<VersionedSecretKey> second = asyncSubject.getKeyAsync(SecretKeyFactory.KEY_NAME, 4);
+        CompletableFuture<VersionedSecretKey> third = asyncSubject.getKeyAsync(SecretKeyFactory.KEY_NAME, 4);
+        assertThat(loads).hasSize(1);
+
+        // Each caller's future is its own:
+        assertThat(first).isNotSameAs(second);
+        third.cancel(false);
+
+        loads.get(0).run();
+        assertThat(first.join().getVersion()).isEqualTo(4);
+        assertThat(first.join()).isSameAs(second.join());
+        assertThat(third.isCancelled()).isTrue();
+        assertThat(asyncSubject.getStats().loadCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldCompleteAsynchronousLoadsWhenLoaderThrowsError() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            JcaVersionedSecretKeyCache failingSubject = newSubjectBuilder()
+                .withKeyPasswordResolver(alias -> {
+                    throw new AssertionError("Broken key password resolver");
+                })
+                .withAsyncExecutor(executor)
+                    .build();
+
+            // The failed load is not left pending for later callers:
+            for (int i = 0; i < 2; i++) {
+                CompletableFuture<VersionedSecretKey> key = failingSubject.getKeyAsync(SecretKeyFactory.KEY_NAME, 4);
+                assertThatThrownBy(() -> key.get(10L, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasRootCauseInstanceOf(AssertionError.class);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldNotReloadKeyStoreForUnknownVersions() {
+        assertThat(subject.containsKey(SecretKeyFactory.KEY_NAME)).isTrue();
+        assertThat(subject.containsKey(SecretKeyFactory.KEY_NAME, 3)).isTrue();
+        assertThat(subject.containsKey(SecretKeyFactory.KEY_NAME, 6)).isFalse();
+        assertThat(subject.containsKey("missing_key")).isFalse();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(subject.getKey(SecretKeyFactory.KEY_NAME, 6)).isNull();
+            assertThat(subject.getKeyAsync("missing_key", 1).join()).isNull();
+        }
+
+        assertThat(subject.getStats().loadCount()).isZero();
+    }
+
+    @Test
+    public void shouldGetSecretKeysInBatch() {
+        Map<String, VersionedSecretKey> keys = subject.getKeys(Arrays.asList(SecretKeyFactory.KEY_NAME, "missing_key"));
+        assertThat(keys).containsOnlyKeys(SecretKeyFactory.KEY_NAME);
+        assertThat(keys.get(SecretKeyFactory.KEY_NAME).getVersion()).isEqualTo(5);
+
+        keys = subject.getKeys(Collections.singletonMap(SecretKeyFactory.KEY_NAME, 2));
+        assertThat(keys).containsOnlyKeys(SecretKeyFactory.KEY_NAME);
+        assertThat(keys.get(SecretKeyFactory.KEY_NAME).getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldGetSecretKeysInBatchOnSingleThreadedExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            JcaVersionedSecretKeyCache singleThreadedSubject = newSubjectBuilder()
+                .withAsyncExecutor(executor)
+                .withWarmUp(true)
+                .withWarmUpExecutor(executor)
+                .withWarmUpLatestVersions(1)
+                    .build();
+            singleThreadedSubject.getWarmUpFuture().get(10L, TimeUnit.SECONDS);
+
+            // The batch runs on the only thread of the executor it decrypts on:
+            List<VersionedSecretKey> keys = executor
+                .submit(() -> singleThreadedSubject.getKeys(SecretKeyFactory.KEY_NAME, 1, 4))
+                    .get(10L, TimeUnit.SECONDS);
+            assertThat(keys)
+                .extracting(VersionedSecretKey::getVersion)
+                    .containsExactly(1, 2, 3, 4);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldGetSecretKeysThroughDefaultMethods() {
+        // An implementation of only the methods every cache must provide:
+        VersionedSecretKeyCache minimal = new VersionedSecretKeyCache() {
+            @Override
+            public VersionedSecretKey getKey(String keyName) {
+                return subject.getKey(keyName);
+            }
+
+            @Override
+            public VersionedSecretKey getKey(String keyName, Integer keyVersion) {
+                return subject.getKey(keyName, keyVersion);
+            }
+        };
+
+        assertThat(minimal.getKey(SecretKeyFactory.KEY_NAME, 2).getVersion()).isEqualTo(2);
+        assertThat(minimal.getKeys(Arrays.asList(SecretKeyFactory.KEY_NAME, "missing_key")))
+            .containsOnlyKeys(SecretKeyFactory.KEY_NAME);
+        assertThat(minimal.getKeys(Collections.singletonMap(SecretKeyFactory.KEY_NAME, 3))
+            .get(SecretKeyFactory.KEY_NAME).getVersion()).isEqualTo(3);
+        assertThat(minimal.listVersions(SecretKeyFactory.KEY_NAME)).containsExactly(1, 2, 3, 4, 5);
+        assertThat(minimal.listVersions("missing_key")).isEmpty();
+        assertThat(minimal.getKeys(SecretKeyFactory.KEY_NAME, 2, 3))
+            .extracting(VersionedSecretKey::getVersion)
+                .containsExactly(2, 3);
+        assertThat(minimal.getLatestKeys(SecretKeyFactory.KEY_NAME, 2))
+            .extracting(VersionedSecretKey::getVersion)
+                .containsExactly(5, 4);
+        assertThat(minimal.containsKey(SecretKeyFactory.KEY_NAME, 6)).isFalse();
+        assertThat(minimal.getKeyAsync(SecretKeyFactory.KEY_NAME).join().getVersion()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldListDateStampedVersionsThroughDefaultMethods() {
+        KeyStore keyStore = fixture.loadKeyStore();
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, "dated", 20260101, 20260103));
+        JcaVersionedSecretKeyCache datedSubject = newSubjectBuilder()
+            .withKeyStoreResource(new ByteArrayResource(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword)))
+                .build();
+
+        AtomicInteger lookups = new AtomicInteger();
+        VersionedSecretKeyCache minimal = new VersionedSecretKeyCache() {
+            @Override
+            public VersionedSecretKey getKey(String keyName) {
+                return datedSubject.getKey(keyName);
+            }
+
+            @Override
+            public VersionedSecretKey getKey(String keyName, Integer keyVersion) {
+                lookups.incrementAndGet();
+                return datedSubject.getKey(keyName, keyVersion);
+            }
+        };
+
+        // Only the versions down to the first missing one are looked up:
+        assertThat(minimal.listVersions("dated")).containsExactly(20260101, 20260102, 20260103);
+        assertThat(lookups.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldGetRangesOfSecretKeyVersions() {
+        assertThat(subject.listVersions(SecretKeyFactory.KEY_NAME)).containsExactly(1, 2, 3, 4, 5);
+
+        assertThat(subject.getKeys(SecretKeyFactory.KEY_NAME, 0, 2))
+            .extracting(VersionedSecretKey::getVersion)
+                .containsExactly(1, 2);
+        assertThat(subject.getLatestKeys(SecretKeyFactory.KEY_NAME, 10))
+            .extracting(VersionedSecretKey::getVersion)
+                .containsExactly(5, 4, 3, 2, 1);
+        assertThat(subject.getLatestKeys("missing_key", 3)).isEmpty();
+
+        // Each query recovers the versions not cached yet in one batch:
+        assertThat(subject.size()).isEqualTo(5L);
+        assertThat(subject.getStats().loadCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldEvictSecretKeysBeyondMaximumWeight() {
+        // Each 128-bit AES key weighs 16:
+        JcaVersionedSecretKeyCache boundedSubject = newSubjectBuilder()
+            .withMaximumWeight(32L)
+                .build();
+
+        for (int version = 1; version <= 5; version++) {
+            assertThat(boundedSubject.getKey(SecretKeyFactory.KEY_NAME, version).getVersion()).isEqualTo(version);
+        }
+
+        assertThat(boundedSubject.size()).isEqualTo(2L);
+        assertThat(boundedSubject.getStats().evictionCount()).isEqualTo(3L);
+    }
+
+    @Test
+    public void shouldGetSecretKeysFromCaffeineCache() {
+        JcaVersionedSecretKeyCache caffeineSubject = newSubjectBuilder()
+            .withCacheEngine(CacheEngine.CAFFEINE)
+            .withMaximumSize(100L)
+                .build();
+
+        VersionedSecretKey key = caffeineSubject.getKey(SecretKeyFactory.KEY_NAME);
+        assertThat(key.getVersion()).isEqualTo(5);
+        assertThat(caffeineSubject.getKey(SecretKeyFactory.KEY_NAME, 5)).isSameAs(key);
+        assertThat(caffeineSubject.getKey(SecretKeyFactory.KEY_NAME, 6)).isNull();
+        assertThat(caffeineSubject.getKeys(Collections.singletonMap(SecretKeyFactory.KEY_NAME, 2)))
+            .containsOnlyKeys(SecretKeyFactory.KEY_NAME);
+
+        assertThat(caffeineSubject.getStats().hitCount()).isEqualTo(1L);
+        assertThat(caffeineSubject.getStats().loadCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldReusePooledMacOfSecretKey() throws GeneralSecurityException {
+        JcaVersionedSecretKeyCache pooledSubject = newSubjectBuilder()
+            .withPooledCryptoInstances(true)
+                .build();
+
+        VersionedSecretKey key = pooledSubject.getKey(SecretKeyFactory.KEY_NAME);
+        assertThat(key).isInstanceOf(PooledVersionedSecretKey.class);
+        PooledVersionedSecretKey pooledKey = (PooledVersionedSecretKey) key;
+
+        byte [] data = "data".getBytes(StandardCharsets.UTF_8);
+        Mac expected = Mac.getInstance("HmacSHA256");
+        expected.init(key);
+
+        Mac mac = pooledKey.borrowMac("HmacSHA256");
+        assertThat(mac.doFinal(data)).isEqualTo(expected.doFinal(data));
+        pooledKey.releaseMac("HmacSHA256", mac);
+
+        assertThat(pooledKey.borrowMac("HmacSHA256")).isSameAs(mac);
+        assertThat(mac.doFinal(data)).isEqualTo(expected.doFinal(data));
+
+        pooledKey.close();
+        pooledKey.releaseMac("HmacSHA256", mac);
+        assertThat(pooledKey.borrowMac("HmacSHA256")).isNotSameAs(mac);
+    }
+
+    @Test
+    public void shouldCopySecretKeyMaterialIntoCallerBuffers() {
+        JcaVersionedSecretKeyCache offHeapSubject = newSubjectBuilder()
+            .withOffHeapKeyMaterial(true)
+                .build();
+
+        VersionedSecretKey key = offHeapSubject.getKey(SecretKeyFactory.KEY_NAME);
+        byte [] expected = subject.getKey(SecretKeyFactory.KEY_NAME).getEncoded();
+        assertThat(key.getEncodedLength()).isEqualTo(expected.length);
+
+        byte [] array = new byte[expected.length + 2];
+        assertThat(key.getEncoded(array, 2)).isEqualTo(expected.length);
+        assertThat(Arrays.copyOfRange(array, 2, array.length)).isEqualTo(expected);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length);
+        assertThat(key.getEncoded(buffer)).isEqualTo(expected.length);
+        assertThat(buffer.hasRemaining()).isFalse();
+        assertThat(key.getEncoded()).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldCopyOnHeapSecretKeyMaterialFromRecoveredKey() {
+        VersionedSecretKey key = subject.getKey(SecretKeyFactory.KEY_NAME);
+        byte [] expected = key.getEncoded();
+        assertThat(key.getEncodedLength()).isEqualTo(expected.length);
+
+        byte [] array = new byte[expected.length + 2];
+        assertThat(key.getEncoded(array, 2)).isEqualTo(expected.length);
+        assertThat(Arrays.copyOfRange(array, 2, array.length)).isEqualTo(expected);
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        assertThat(key.getEncoded(buffer)).isEqualTo(expected.length);
+        assertThat(buffer.array()).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldDestroyOffHeapSecretKeysWhenEvicted() {
+        JcaVersionedSecretKeyCache offHeapSubject = newSubjectBuilder()
+            .withOffHeapKeyMaterial(true)
+            .withMaximumSize(1)
+                .build();
+
+        VersionedSecretKey evicted = offHeapSubject.getKey(SecretKeyFactory.KEY_NAME, 1);
+        assertThat(evicted.isDestroyed()).isFalse();
+
+        VersionedSecretKey cached = offHeapSubject.getKey(SecretKeyFactory.KEY_NAME, 2);
+        assertThat(evicted.isDestroyed()).isTrue();
+        assertThatThrownBy(evicted::getEncoded).isInstanceOf(IllegalStateException.class);
+        assertThat(cached.isDestroyed()).isFalse();
+    }
+
+    @Test
+    public void shouldNotDestroySecretKeyWhoseRecoveredKeyCannotBeDestroyed() {
+        VersionedSecretKey key = subject.getKey(SecretKeyFactory.KEY_NAME);
+        byte [] expected = key.getEncoded();
+
+        assertThatThrownBy(key::destroy).isInstanceOf(DestroyFailedException.class);
+        assertThat(key.isDestroyed()).isFalse();
+        assertThat(key.getEncoded()).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldReloadWatchedKeyStoreFileWhenItChanges() throws Exception {
+        File keyStoreFile = temporaryFolder.newFile("keystore.jceks");
+        Files.write(keyStoreFile.toPath(), rawKeyStore);
+
+        try ( JcaVersionedSecretKeyCache watchingSubject = newSubjectBuilder()
+            .withKeyStoreResource(new FileSystemResource(keyStoreFile))
+            .withKeyStoreWatch(true)
+                .build() )
+        {
+            VersionedSecretKey key = watchingSubject.getKey(SecretKeyFactory.KEY_NAME);
+            assertThat(key.getVersion()).isEqualTo(5);
+
+            // Rotate the keys by replacing the key store file:
+            KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
+            keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, 6));
+            File rotatedFile = temporaryFolder.newFile("keystore.jceks.tmp");
+            try ( OutputStream os = new FileOutputStream(rotatedFile) ) {
+                keyStore.store(os, keyStorePassword.toCharArray());
+            }
+            Files.move(rotatedFile.toPath(), keyStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            // Cached versions are recovered again from the new key store:
+            long deadline = System.currentTimeMillis() + 10000L;
+            while ( Arrays.equals(watchingSubject.getKey(SecretKeyFactory.KEY_NAME, 5).getEncoded(), key.getEncoded())
+                && System.currentTimeMillis() < deadline )
+            {
+                Thread.sleep(50L);
+            }
+
+            assertThat(watchingSubject.getKey(SecretKeyFactory.KEY_NAME).getVersion()).isEqualTo(6);
+            assertThat(watchingSubject.getKey(SecretKeyFactory.KEY_NAME, 5).getEncoded())
+                .isNotEqualTo(key.getEncoded());
+        }
+    }
+
+    @Test
+    public void shouldRecoverOnlyChangedKeysWhenKeyStoreChanges() throws Exception {
+        File keyStoreFile = temporaryFolder.newFile("keystore.jceks");
+        Files.write(keyStoreFile.toPath(), rawKeyStore);
+
+        try ( JcaVersionedSecretKeyCache watchingSubject = newSubjectBuilder()
+            .withKeyStoreResource(new FileSystemResource(keyStoreFile))
+            .withKeyStoreWatch(true)
+                .build() )
+        {
+            VersionedSecretKey previousKey = watchingSubject.getKey(SecretKeyFactory.KEY_NAME, 4);
+            VersionedSecretKey latestKey = watchingSubject.getKey(SecretKeyFactory.KEY_NAME);
+            assertThat(latestKey.getVersion()).isEqualTo(5);
+
+            // Add one version to a copy of the key store and swap it in:
+            KeyStore keyStore = KeyStore.getInstance(KeyStoreFactory.JCE_KEYSTORE_TYPE);
+            keyStore.load(new ByteArrayInputStream(rawKeyStore), keyStorePassword.toCharArray());
+            String keyPassword = RandomStringUtils.randomAlphanumeric(16);
+            keyPasswords.put(SecretKeyFactory.KEY_NAME + "-v6",
+                new ByteArrayResource(keyPassword.getBytes(StandardCharsets.UTF_8)));
+            keyStore.setEntry(SecretKeyFactory.KEY_NAME + "-v6",
+                new KeyStore.SecretKeyEntry(new SecretKeySpec(new byte[16], "AES")),
+                new KeyStore.PasswordProtection(keyPassword.toCharArray()));
+            File rotatedFile = temporaryFolder.newFile("keystore.jceks.tmp");
+            try ( OutputStream os = new FileOutputStream(rotatedFile) ) {
+                keyStore.store(os, keyStorePassword.toCharArray());
+            }
+            Files.move(rotatedFile.toPath(), keyStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            // The new version is recovered in the background:
+            long deadline = System.currentTimeMillis() + 10000L;
+            while ( watchingSubject.size() < 3 && System.currentTimeMillis() < deadline ) {
+                Thread.sleep(50L);
+            }
+
+            // Unchanged keys are kept and nothing else is loaded:
+            assertThat(watchingSubject.getKey(SecretKeyFactory.KEY_NAME).getVersion()).isEqualTo(6);
+            assertThat(watchingSubject.getKey(SecretKeyFactory.KEY_NAME, 4)).isSameAs(previousKey);
+            assertThat(watchingSubject.getKey(SecretKeyFactory.KEY_NAME, 5)).isSameAs(latestKey);
+            assertThat(watchingSubject.getStats().loadCount()).isEqualTo(2L);
+        }
+    }
+
+    @Test
+    public void shouldNotRestoreKeyRemovedWhileItIsRecovered() throws KeyStoreException {
+        ManualTicker ticker = new ManualTicker();
+        SwappableResource keyStoreResource = new SwappableResource(rawKeyStore);
+        List<Runnable> refreshes = new ArrayList<>();
+        List<Runnable> recoveries = new ArrayList<>();
+        JcaVersionedSecretKeyCache recoveringSubject = newSubjectBuilder()
+            .withKeyStoreResource(keyStoreResource)
+            .withRefreshAfterWriteDuration(Duration.ofMinutes(1L))
+            .withRefreshExecutor(refreshes::add)
+            .withAsyncExecutor(recoveries::add)
+            .withTicker(ticker)
+                .build();
+
+        recoveringSubject.getKey(SecretKeyFactory.KEY_NAME, 3);
+        recoveringSubject.getKey(SecretKeyFactory.KEY_NAME, 5);
+
+        // Replace the key, so that the next snapshot recovers it:
+        KeyStore keyStore = fixture.loadKeyStore();
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, SecretKeyFactory.KEY_NAME, 3, 3));
+        keyStoreResource.setContent(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+        refreshKeyStore(recoveringSubject, ticker, refreshes);
+        assertThat(recoveries).hasSize(1);
+
+        // Remove the key before it has been recovered:
+        keyStore.deleteEntry(SecretKeyFactory.KEY_NAME + "-v3");
+        keyStoreResource.setContent(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+        refreshKeyStore(recoveringSubject, ticker, refreshes);
+        assertThat(recoveringSubject.size()).isEqualTo(1L);
+
+        runAll(recoveries);
+        assertThat(recoveringSubject.size()).isEqualTo(1L);
+        assertThat(recoveringSubject.getKey(SecretKeyFactory.KEY_NAME).getVersion()).isEqualTo(5);
+    }
+
+    /**
+     * Reloads the key store in the background, without reloading any key.
+     */
+    private static void refreshKeyStore(
+        JcaVersionedSecretKeyCache refreshingSubject, ManualTicker ticker, List<Runnable> refreshes)
+    {
+        ticker.advance(Duration.ofMinutes(2L));
+        refreshingSubject.getKey(SecretKeyFactory.KEY_NAME, 5);
+
+        // The key store refresh is queued ahead of the key's:
+        Runnable keyStoreRefresh = refreshes.get(0);
+        refreshes.clear();
+        keyStoreRefresh.run();
+    }
+
+    @Test
+    public void shouldServeReloadedSecretKeyAfterRefreshInterval() {
+        ManualTicker ticker = new ManualTicker();
+        SwappableResource keyStoreResource = new SwappableResource(rawKeyStore);
+        List<Runnable> refreshes = new ArrayList<>();
+        JcaVersionedSecretKeyCache refreshingSubject = newRefreshingSubject(ticker, keyStoreResource, refreshes);
+
+        VersionedSecretKey key = refreshingSubject.getKey(SecretKeyFactory.KEY_NAME, 3);
+
+        // Replace the key with a new one:
+        KeyStore keyStore = KeyStoreFactory.loadKeyStore(rawKeyStore, KeyStoreFactory.JCE_KEYSTORE_TYPE, keyStorePassword);
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, SecretKeyFactory.KEY_NAME, 3, 3));
+        keyStoreResource.setContent(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+
+        // The old key is served while it is reloaded in the background:
+        ticker.advance(Duration.ofMinutes(2L));
+        assertThat(refreshingSubject.getKey(SecretKeyFactory.KEY_NAME, 3)).isSameAs(key);
+        runAll(refreshes);
+
+        VersionedSecretKey reloadedKey = refreshingSubject.getKey(SecretKeyFactory.KEY_NAME, 3);
+        assertThat(reloadedKey.getVersion()).isEqualTo(3);
+        assertThat(reloadedKey.getEncoded()).isNotEqualTo(key.getEncoded());
+        assertThat(keyStoreResource.getReads()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldKeepUnchangedSecretKeysCachedPastTheirExpiry() {
+        ManualTicker ticker = new ManualTicker();
+        SwappableResource keyStoreResource = new SwappableResource(rawKeyStore);
+        List<Runnable> refreshes = new ArrayList<>();
+        JcaVersionedSecretKeyCache expiringSubject = newSubjectBuilder()
+            .withKeyStoreResource(keyStoreResource)
+            .withRefreshExecutor(refreshes::add)
+            .withTicker(ticker)
+                .build();
+
+        VersionedSecretKey key = expiringSubject.getKey(SecretKeyFactory.KEY_NAME, 3);
+
+        // The key store is refreshed ahead of the key's expiry:
+        ticker.advance(Duration.ofMinutes(45L));
+        assertThat(expiringSubject.getKey(SecretKeyFactory.KEY_NAME, 3)).isSameAs(key);
+        assertThat(refreshes).hasSize(1);
+        runAll(refreshes);
+
+        // Its content is unchanged, so the key is not recovered again:
+        ticker.advance(Duration.ofMinutes(45L));
+        assertThat(expiringSubject.getKey(SecretKeyFactory.KEY_NAME, 3)).isSameAs(key);
+        assertThat(expiringSubject.getStats().loadCount()).isEqualTo(1L);
+        assertThat(keyStoreResource.getReads()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldStopServingSecretKeyWhoseAliasIsGoneOnReload() throws KeyStoreException {
+        assertStopsServingKeyWhoseAliasIsGoneOnReload(CacheEngine.GUAVA);
+    }
+
+    @Test
+    public void shouldStopServingSecretKeyWhoseAliasIsGoneOnReloadFromCaffeineCache() throws KeyStoreException {
+        assertStopsServingKeyWhoseAliasIsGoneOnReload(CacheEngine.CAFFEINE);
+    }
+
+    private void assertStopsServingKeyWhoseAliasIsGoneOnReload(CacheEngine cacheEngine) throws KeyStoreException {
+        ManualTicker ticker = new ManualTicker();
+        SwappableResource keyStoreResource = new SwappableResource(rawKeyStore);
+        List<Runnable> refreshes = new ArrayList<>();
+        JcaVersionedSecretKeyCache refreshingSubject = newRefreshingSubjectBuilder(ticker, keyStoreResource, refreshes)
+            .withCacheEngine(cacheEngine)
+                .build();
+
+        VersionedSecretKey key = refreshingSubject.getKey(SecretKeyFactory.KEY_NAME, 3);
+
+        // Remove the key from the key store:
+        KeyStore keyStore = KeyStoreFactory.loadKeyStore(rawKeyStore, KeyStoreFactory.JCE_KEYSTORE_TYPE, keyStorePassword);
+        keyStore.deleteEntry(SecretKeyFactory.KEY_NAME + "-v3");
+        keyStoreResource.setContent(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+
+        ticker.advance(Duration.ofMinutes(2L));
+        assertThat(refreshingSubject.getKey(SecretKeyFactory.KEY_NAME, 3)).isSameAs(key);
+
+        // The key reload finds nothing, which drops the old key without
+        // failing the refresh, which the cache would log as a warning:
+        List<LogRecord> warnings = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if ( record.getLevel().intValue() >= Level.WARNING.intValue() )
+                    warnings.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger rootLogger = Logger.getLogger("");
+        rootLogger.addHandler(handler);
+        try {
+            runAll(refreshes);
+        } finally {
+            rootLogger.removeHandler(handler);
+        }
+
+        assertThat(warnings).isEmpty();
+        assertThat(refreshingSubject.size()).isZero();
+        assertThat(refreshingSubject.getKey(SecretKeyFactory.KEY_NAME, 3)).isNull();
+        assertThat(refreshingSubject.getKey(SecretKeyFactory.KEY_NAME).getVersion()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldRememberAliasesThatHoldNoSecretKey() {
+        KeyStore keyStore = fixture.loadKeyStore();
+        keyPasswords.putAll(KeyPairFactory.createRandomRsaKeyPairs(keyStore, "key-pair", 1));
+        ManualTicker ticker = new ManualTicker();
+        JcaVersionedSecretKeyCache negativeSubject = newSubjectBuilder()
+            .withKeyStoreResource(new ByteArrayResource(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword)))
+            .withNegativeCacheDuration(Duration.ofMinutes(1L))
+            .withTicker(ticker)
+                .build();
+
+        assertThat(negativeSubject.getKey("key-pair", 1)).isNull();
+        assertThat(negativeSubject.getKey("key-pair", 1)).isNull();
+        assertThat(negativeSubject.getStats().loadCount()).isEqualTo(1L);
+
+        // The alias is tried again once the negative entry expires:
+        ticker.advance(Duration.ofMinutes(2L));
+        assertThat(negativeSubject.getKey("key-pair", 1)).isNull();
+        assertThat(negativeSubject.getStats().loadCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldForgetAliasesThatHoldNoSecretKeyWhenKeyStoreChanges() throws KeyStoreException {
+        KeyStore keyStore = fixture.loadKeyStore();
+        keyPasswords.putAll(KeyPairFactory.createRandomRsaKeyPairs(keyStore, "key-pair", 1));
+        ManualTicker ticker = new ManualTicker();
+        SwappableResource keyStoreResource =
+            new SwappableResource(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+        List<Runnable> refreshes = new ArrayList<>();
+        JcaVersionedSecretKeyCache negativeSubject = newSubjectBuilder()
+            .withKeyStoreResource(keyStoreResource)
+            .withNegativeCacheDuration(Duration.ofHours(2L))
+            .withRefreshAfterWriteDuration(Duration.ofMinutes(1L))
+            .withRefreshExecutor(refreshes::add)
+            .withTicker(ticker)
+                .build();
+
+        assertThat(negativeSubject.getKey("key-pair", 1)).isNull();
+
+        // Rotate the alias to hold a secret key:
+        keyStore.deleteEntry("key-pair-v1");
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, "key-pair", 1));
+        keyStoreResource.setContent(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+
+        ticker.advance(Duration.ofMinutes(2L));
+        assertThat(negativeSubject.getKey("key-pair", 1)).isNull();
+        runAll(refreshes);
+
+        assertThat(negativeSubject.getKey("key-pair", 1)).isNotNull();
+    }
+
+    @Test
+    public void shouldNotRememberVersionsRequestedBeforeTheyExist() {
+        ManualTicker ticker = new ManualTicker();
+        SwappableResource keyStoreResource = new SwappableResource(rawKeyStore);
+        JcaVersionedSecretKeyCache negativeSubject = newSubjectBuilder()
+            .withKeyStoreResource(keyStoreResource)
+            .withNegativeCacheDuration(Duration.ofHours(2L))
+            .withTicker(ticker)
+                .build();
+
+        // The password of the next version is configured ahead of the key:
+        KeyStore keyStore = fixture.loadKeyStore();
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, SecretKeyFactory.KEY_NAME, 6, 6));
+
+        // Once the key store has expired the version is looked up by loading:
+        assertThat(negativeSubject.getKey(SecretKeyFactory.KEY_NAME)).isNotNull();
+        ticker.advance(Duration.ofMinutes(61L));
+        assertThat(negativeSubject.getKey(SecretKeyFactory.KEY_NAME, 6)).isNull();
+
+        keyStoreResource.setContent(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+
+        ticker.advance(Duration.ofMinutes(61L));
+        assertThat(negativeSubject.getKey(SecretKeyFactory.KEY_NAME, 6).getVersion()).isEqualTo(6);
+    }
+
+    @Test
+    public void shouldGetVersionsOfMixedCaseKeyNamesOnceAliasesAreIndexed() {
+        // JCEKS stores aliases in lower case, but looks them up in any case:
+        KeyStore keyStore = fixture.loadKeyStore();
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, "MyKey", 2));
+        JcaVersionedSecretKeyCache mixedCaseSubject = newSubjectBuilder()
+            .withKeyStoreResource(new ByteArrayResource(KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword)))
+                .build();
+
+        assertThat(mixedCaseSubject.getKey(SecretKeyFactory.KEY_NAME)).isNotNull();
+        assertThat(mixedCaseSubject.containsKey("MyKey", 2)).isTrue();
+        assertThat(mixedCaseSubject.getKey("MyKey", 2).getVersion()).isEqualTo(2);
+        assertThat(mixedCaseSubject.getKeyAsync("MyKey", 1).join().getVersion()).isEqualTo(1);
+        assertThat(mixedCaseSubject.getKeys(Collections.singletonMap("MyKey", 1))).containsOnlyKeys("MyKey");
+        assertThat(mixedCaseSubject.getKey("MyKey", 3)).isNull();
+    }
+
+    /**
+     * Creates a subject that refreshes keys after a minute, queueing every
+     * background refresh until the test runs it.
+     */
+    private JcaVersionedSecretKeyCache newRefreshingSubject(
+        ManualTicker ticker, SwappableResource keyStoreResource, List<Runnable> refreshes)
+    {
+        return newRefreshingSubjectBuilder(ticker, keyStoreResource, refreshes).build();
+    }
+
+    private JcaVersionedSecretKeyCacheBuilder newRefreshingSubjectBuilder(
+        ManualTicker ticker, SwappableResource keyStoreResource, List<Runnable> refreshes)
+    {
+        return newSubjectBuilder()
+            .withKeyStoreResource(keyStoreResource)
+            .withRefreshAfterWriteDuration(Duration.ofMinutes(1L))
+            .withRefreshExecutor(refreshes::add)
+            .withAsyncExecutor(Runnable::run)
+            .withTicker(ticker);
+    }
+
+    /**
+     * Runs the queued refreshes, most recently queued first, so that the key
+     * reload loads the key store rather than the key store refresh.
+     */
+    private static void runAll(List<Runnable> refreshes) {
+        while ( !refreshes.isEmpty() ) {
+            refreshes.remove(refreshes.size() - 1).run();
+        }
+    }
+
+    @Test
+    public void shouldWarmUpLatestVersionsOfSecretKey() {
+        JcaVersionedSecretKeyCache warmSubject = newSubjectBuilder()
+            .withWarmUp(true)
+            .withWarmUpLatestVersions(2)
+                .build();
+
+        warmSubject.getWarmUpFuture().join();
+        assertThat(warmSubject.isWarmedUp()).isTrue();
+        assertThat(warmSubject.size()).isEqualTo(2);
+
+        VersionedSecretKey key = warmSubject.getKey(SecretKeyFactory.KEY_NAME);
+        assertThat(key).isNotNull();
+        assertThat(key.getVersion()).isEqualTo(5);
+    }
+
+}
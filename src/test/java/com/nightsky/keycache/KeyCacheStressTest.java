@@ -0,0 +1,333 @@
+package com.nightsky.keycache;
+
+import com.nightsky.keycache.factory.KeyPairFactory;
+import com.nightsky.keycache.factory.KeyStoreFactory;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import org.apache.commons.lang3.RandomStringUtils;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Runs many threads against the caches while the test ticker forces every
+ * key and key store snapshot to expire, and while new key versions are
+ * rotated into the key store. Every lookup must return its key, and the key
+ * store must not be loaded more often than the expiries require.
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class KeyCacheStressTest {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyCacheStressTest.class);
+
+    private static final int THREADS = 64;
+
+    private static final int VERSIONS = 5;
+
+    private static final int ROTATIONS = 3;
+
+    private static final long RUN_MILLIS = 3000L;
+
+    private static final long EXPIRY_INTERVAL_MILLIS = 200L;
+
+    private static final int SAMPLES_PER_THREAD = 4096;
+
+    private static final Duration EXPIRY = Duration.ofMinutes(10L);
+
+    private String keyStorePassword;
+
+    private Map<String, Resource> keyPasswords;
+
+    private ManualTicker ticker;
+
+    private SwappableResource keyStoreResource;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
+        keyPasswords = new HashMap<>();
+        ticker = new ManualTicker();
+        keyStoreResource = new SwappableResource(new byte[0]);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldServeSecretKeysWhileExpiringAndRotating() throws Exception {
+        KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, VERSIONS));
+        List<byte[]> rotations = createRotations(keyStore, (ks, version) ->
+            SecretKeyFactory.createRandomAesKeys(ks, SecretKeyFactory.KEY_NAME, version, version));
+
+        JcaVersionedSecretKeyCache subject = JcaVersionedSecretKeyCache.builder()
+            .withKeyPasswords(keyPasswords)
+            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
+            .withKeyStoreResource(keyStoreResource)
+            .withKeyStoreType(KeyStoreFactory.JCE_KEYSTORE_TYPE)
+            .withExpireAfterWriteDuration(EXPIRY)
+            .withTicker(ticker)
+                .build();
+
+        StressResult result = run("secret keys", rotations, version -> {
+            VersionedSecretKey key = version == 0
+                ? subject.getKey(SecretKeyFactory.KEY_NAME)
+                : subject.getKey(SecretKeyFactory.KEY_NAME, version);
+            return key == null ? -1 : key.getVersion();
+        });
+
+        assertResult(result);
+    }
+
+    @Test
+    public void shouldServeKeyPairsWhileExpiringAndRotating() throws Exception {
+        KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
+        keyPasswords.putAll(KeyPairFactory.createRandomRsaKeyPairs(keyStore, VERSIONS));
+        List<byte[]> rotations = createRotations(keyStore, (ks, version) ->
+            KeyPairFactory.createRandomRsaKeyPairs(ks, KeyPairFactory.KEY_NAME, version, version));
+
+        JcaVersionedKeyPairCache subject = JcaVersionedKeyPairCache.builder()
+            .withKeyPasswords(keyPasswords)
+            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
+            .withKeyStoreResource(keyStoreResource)
+            .withKeyStoreType(KeyStoreFactory.JCE_KEYSTORE_TYPE)
+            .withExpireAfterWriteDuration(EXPIRY)
+            .withTicker(ticker)
+                .build();
+
+        StressResult result = run("key pairs", rotations, version -> {
+            VersionedKeyPair keyPair = version == 0
+                ? subject.getKeyPair(KeyPairFactory.KEY_NAME)
+                : subject.getKeyPair(KeyPairFactory.KEY_NAME, version);
+            return keyPair == null ? -1 : keyPair.getVersion();
+        });
+
+        assertResult(result);
+    }
+
+    /**
+     * Stores the key store as it is, then once more after adding each of the
+     * rotated versions.
+     */
+    private List<byte[]> createRotations(
+        KeyStore keyStore,
+        BiFunction<KeyStore, Integer, Map<String, Resource>> addVersion)
+        throws GeneralSecurityException, IOException
+    {
+        List<byte[]> rotations = new ArrayList<>();
+        rotations.add(store(keyStore));
+        for (int version = VERSIONS + 1; version <= VERSIONS + ROTATIONS; version++) {
+            keyPasswords.putAll(addVersion.apply(keyStore, version));
+            rotations.add(store(keyStore));
+        }
+
+        return rotations;
+    }
+
+    private byte[] store(KeyStore keyStore) throws GeneralSecurityException, IOException {
+        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
+            keyStore.store(os, keyStorePassword.toCharArray());
+            return os.toByteArray();
+        }
+    }
+
+    /**
+     * Looks up random versions of a key on every thread until the run is
+     * over. Meanwhile, the ticker is moved past the expiry duration at a
+     * fixed interval, and every other expiry rotates in a new key version,
+     * which must be the latest version found as soon as the ticker has moved.
+     *
+     * @param lookup Looks up a version of the key, or the latest version
+     *        given zero, and returns the version found or -1 for none
+     */
+    private StressResult run(String name, List<byte[]> rotations, VersionLookup lookup) throws Exception {
+        keyStoreResource.setContent(rotations.get(0));
+
+        AtomicLong operations = new AtomicLong();
+        AtomicInteger misses = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+
+        List<Future<long[]>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] samples = new long[SAMPLES_PER_THREAD];
+                long count = 0L;
+                start.await();
+
+                while ( System.nanoTime() - deadline < 0 ) {
+                    int version = random.nextInt(VERSIONS + 1);
+                    long startTime = System.nanoTime();
+                    int found;
+                    try {
+                        found = lookup.getVersion(version);
+                    } catch (RuntimeException e) {
+                        log.error("Lookup failed", e);
+                        failures.incrementAndGet();
+                        continue;
+                    }
+                    long latency = System.nanoTime() - startTime;
+
+                    if ( found < (version == 0 ? VERSIONS : version) || (version != 0 && found != version) )
+                        misses.incrementAndGet();
+
+                    // Reservoir sampling keeps the latency samples uniform:
+                    if ( count < samples.length )
+                        samples[(int) count] = latency;
+                    else {
+                        long i = random.nextLong(count + 1);
+                        if ( i < samples.length )
+                            samples[(int) i] = latency;
+                    }
+                    count++;
+                }
+
+                operations.addAndGet(count);
+                return Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+            }));
+        }
+
+        int expiries = 0;
+        int rotation = 0;
+        int staleRotations = 0;
+        start.countDown();
+        long startTime = System.nanoTime();
+        while ( System.nanoTime() - deadline < 0 ) {
+            Thread.sleep(EXPIRY_INTERVAL_MILLIS);
+
+            // Swap the key store before the ticker moves, so that the loads
+            // the expiry causes read the new version:
+            boolean rotating = (expiries + 1) % 2 == 0 && rotation < rotations.size() - 1;
+            if ( rotating )
+                keyStoreResource.setContent(rotations.get(++rotation));
+
+            ticker.advance(EXPIRY.plusSeconds(1L));
+            expiries++;
+
+            if ( rotating && lookup.getVersion(0) != VERSIONS + rotation )
+                staleRotations++;
+        }
+
+        List<long[]> samples = new ArrayList<>();
+        for (Future<long[]> worker : workers) {
+            samples.add(worker.get());
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        StressResult result = new StressResult(
+            operations.get(), misses.get(), failures.get(), expiries, rotation, staleRotations,
+            keyStoreResource.getReads(), merge(samples));
+        log.info("{}: {} threads, {} ops/s, latency p50 {} us, p99 {} us, p99.9 {} us, max {} us, "
+            + "{} key store loads for {} expiries and {} rotations",
+            name, THREADS,
+            result.operations * TimeUnit.SECONDS.toNanos(1L) / elapsedNanos,
+            result.percentileMicros(0.50), result.percentileMicros(0.99), result.percentileMicros(0.999),
+            result.percentileMicros(1.0),
+            result.keyStoreLoads, result.expiries, result.rotations);
+
+        return result;
+    }
+
+    private void assertResult(StressResult result) {
+        assertThat(result.operations).isGreaterThan(0L);
+        assertThat(result.failures).isZero();
+        assertThat(result.misses).isZero();
+        assertThat(result.rotations).isPositive();
+        assertThat(result.staleRotations).isZero();
+
+        // The first load, and then one load per expiry:
+        assertThat(result.keyStoreLoads).isBetween(1, result.expiries + 1);
+    }
+
+    private static long[] merge(List<long[]> samples) {
+        long[] merged = samples.stream()
+            .flatMapToLong(Arrays::stream)
+                .toArray();
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private interface VersionLookup {
+
+        public int getVersion(int version);
+
+    }
+
+    private static class StressResult {
+
+        private final long operations;
+
+        private final int misses;
+
+        private final int failures;
+
+        private final int expiries;
+
+        private final int rotations;
+
+        private final int staleRotations;
+
+        private final int keyStoreLoads;
+
+        private final long[] sortedLatencies;
+
+        private StressResult(
+            long operations, int misses, int failures, int expiries, int rotations, int staleRotations,
+            int keyStoreLoads, long[] sortedLatencies)
+        {
+            this.operations = operations;
+            this.misses = misses;
+            this.failures = failures;
+            this.expiries = expiries;
+            this.rotations = rotations;
+            this.staleRotations = staleRotations;
+            this.keyStoreLoads = keyStoreLoads;
+            this.sortedLatencies = sortedLatencies;
+        }
+
+        private long percentileMicros(double percentile) {
+            if ( sortedLatencies.length == 0 )
+                return 0L;
+
+            int i = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+            return TimeUnit.NANOSECONDS.toMicros(sortedLatencies[Math.max(i, 0)]);
+        }
+
+    }
+
+}
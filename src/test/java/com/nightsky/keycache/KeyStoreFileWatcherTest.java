@@ -0,0 +1,53 @@
+package com.nightsky.keycache;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class KeyStoreFileWatcherTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldRetryFailedCallbackOnNextEvent() throws Exception {
+        File keyStoreFile = temporaryFolder.newFile("keystore.jceks");
+        Files.write(keyStoreFile.toPath(), new byte[] { 1 });
+
+        AtomicInteger calls = new AtomicInteger();
+        Semaphore called = new Semaphore(0);
+        Runnable onChange = () -> {
+            called.release();
+            if ( calls.incrementAndGet() == 1 )
+                throw new IllegalStateException("Key store unavailable");
+        };
+
+        try ( KeyStoreFileWatcher watcher = new KeyStoreFileWatcher(keyStoreFile.toPath(), onChange) ) {
+            Files.write(keyStoreFile.toPath(), new byte[] { 1, 2 });
+            assertThat(called.tryAcquire(10L, TimeUnit.SECONDS)).isTrue();
+
+            // The file is unchanged since, but its change was never handled:
+            temporaryFolder.newFile("unrelated");
+            assertThat(called.tryAcquire(10L, TimeUnit.SECONDS)).isTrue();
+
+            // Once handled, the same change is not handled again:
+            temporaryFolder.newFile("another");
+            assertThat(called.tryAcquire(1L, TimeUnit.SECONDS)).isFalse();
+            assertThat(calls.get()).isEqualTo(2);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.nightsky.keycache;
+
+import com.nightsky.keycache.factory.KeyStoreFactory;
+import com.nightsky.keycache.factory.LargeKeyStoreFactory;
+import com.nightsky.keycache.factory.SecretKeyCacheFixture;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import com.nightsky.keycache.metrics.NoOpKeyCacheMetrics;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that looking up a warm key does not depend on the size of the key
+ * store. The same five keys are cached from key stores padded with a small
+ * and with a large number of filler aliases, and many warm lookups of the
+ * latest and of specific versions must neither read the key store again nor
+ * scan its aliases. How long those lookups take is left to the JMH
+ * benchmarks, since timings are too noisy to assert on in a unit test.
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class KeyStoreScalingTest {
+
+    private static final int VERSIONS = 5;
+
+    private static final int SMALL_ALIAS_COUNT = 1000;
+
+    private static final int LARGE_ALIAS_COUNT = 10000;
+
+    private static final int LOOKUPS = 100000;
+
+    @Test
+    public void shouldNotRescanLargeJceKeyStoreOnWarmLookups() {
+        assertWarmLookupsStayInCache(KeyStoreFactory.JCE_KEYSTORE_TYPE);
+    }
+
+    @Test
+    public void shouldNotRescanLargePkcs12KeyStoreOnWarmLookups() {
+        assertWarmLookupsStayInCache(KeyStoreFactory.PKCS12_KEYSTORE_TYPE);
+    }
+
+    @Test
+    public void shouldNotRescanLargeBouncyCastleFipsKeyStoreOnWarmLookups() {
+        assertWarmLookupsStayInCache(KeyStoreFactory.BOUNCY_CASTLE_FIPS_KEYSTORE_TYPE);
+    }
+
+    private void assertWarmLookupsStayInCache(String keyStoreType) {
+        SecretKeyCacheFixture fixture = SecretKeyCacheFixture.create(keyStoreType, VERSIONS);
+
+        for (int aliasCount : new int[] { SMALL_ALIAS_COUNT, LARGE_ALIAS_COUNT }) {
+            KeyStore keyStore = fixture.loadKeyStore();
+            LargeKeyStoreFactory.addFillerAliases(keyStore, aliasCount);
+            SwappableResource resource =
+                new SwappableResource(KeyStoreFactory.storeKeyStore(keyStore, fixture.getKeyStorePassword()));
+            CountingMetrics metrics = new CountingMetrics();
+            JcaVersionedSecretKeyCache cache = fixture.newCacheBuilder()
+                .withKeyStoreResource(resource)
+                .withMetrics(metrics)
+                    .build();
+
+            // Cache every version before counting:
+            lookUp(cache, 0);
+            for (int version = 1; version <= VERSIONS; version++) {
+                lookUp(cache, version);
+            }
+            long misses = cache.getStats().missCount();
+
+            for (int i = 0; i < LOOKUPS; i++) {
+                lookUp(cache, i % (VERSIONS + 1));
+            }
+
+            // Warm lookups must not go back to the key store or its aliases:
+            assertThat(cache.getStats().missCount()).as("misses with %d aliases", aliasCount).isEqualTo(misses);
+            assertThat(resource.getReads()).as("reads with %d aliases", aliasCount).isEqualTo(1);
+            assertThat(metrics.aliasScans.get()).as("alias scans with %d aliases", aliasCount).isEqualTo(1);
+        }
+    }
+
+    private static void lookUp(JcaVersionedSecretKeyCache cache, int version) {
+        VersionedSecretKey key = version == 0
+            ? cache.getKey(SecretKeyFactory.KEY_NAME)
+            : cache.getKey(SecretKeyFactory.KEY_NAME, version);
+
+        if ( key == null || key.getVersion() != (version == 0 ? VERSIONS : version) )
+            throw new AssertionError("Expected version " + version + " of " + SecretKeyFactory.KEY_NAME);
+    }
+
+    /**
+     * Counts alias scans, discarding everything else.
+     */
+    private static class CountingMetrics extends NoOpKeyCacheMetrics {
+
+        private final AtomicInteger aliasScans = new AtomicInteger();
+
+        @Override
+        public void recordAliasScan(long durationNanos, int keyNameCount) {
+            aliasScans.incrementAndGet();
+        }
+
+    }
+
+}
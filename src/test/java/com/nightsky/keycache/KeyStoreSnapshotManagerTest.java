@@ -0,0 +1,333 @@
+package com.nightsky.keycache;
+
+import com.nightsky.keycache.factory.KeyStoreFactory;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.RandomStringUtils;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.core.io.ByteArrayResource;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class KeyStoreSnapshotManagerTest {
+
+    private static final int THREADS = 16;
+
+    private static final Pattern KEY_NAME_PATTERN = Pattern.compile("([\\p{Alnum}_-]+)-v(\\d+)");
+
+    private String keyStorePassword;
+
+    private byte [] rawKeyStore;
+
+    private AtomicInteger reads;
+
+    private CountDownLatch callers;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
+        KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
+        SecretKeyFactory.createRandomAesKeys(keyStore, 3);
+
+        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
+            keyStore.store(os, keyStorePassword.toCharArray());
+            rawKeyStore = os.toByteArray();
+        }
+
+        reads = new AtomicInteger();
+        callers = new CountDownLatch(0);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldShareOneKeyStoreLoadBetweenConcurrentCallers() throws Exception {
+        KeyStoreSnapshotManager subject = newSubject(false);
+
+        for (Future<Object> result : acquireConcurrently(subject)) {
+            assertThat(result.get()).isInstanceOf(KeyAliasIndex.class);
+        }
+
+        assertThat(reads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldShareOneFailedKeyStoreLoadBetweenConcurrentCallers() throws Exception {
+        KeyStoreSnapshotManager subject = newSubject(true);
+
+        // A caller that arrives just after the load has failed shares the
+        // failure while loads back off, rather than load again:
+        subject.setStaleGracePeriod(Duration.ofMinutes(1L));
+
+        for (Future<Object> result : acquireConcurrently(subject)) {
+            assertThat(result.get()).isInstanceOf(IOException.class);
+        }
+
+        assertThat(reads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldServeLastGoodSnapshotWhileKeyStoreIsUnavailable() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean();
+        ManualTicker ticker = new ManualTicker();
+        KeyStoreSnapshotManager subject = newStaleServingSubject(failing, ticker);
+
+        KeyAliasIndex index;
+        long loadTime;
+        try ( KeyStoreSnapshot snapshot = subject.acquire() ) {
+            index = snapshot.getAliasIndex();
+            loadTime = snapshot.getLoadTime();
+        }
+
+        // The snapshot expires while the key store is unavailable:
+        failing.set(true);
+        ticker.advance(Duration.ofMinutes(2L));
+        for (int i = 0; i < 10; i++) {
+            try ( KeyStoreSnapshot snapshot = subject.acquire() ) {
+                assertThat(snapshot.getAliasIndex()).isSameAs(index);
+            }
+        }
+
+        // Loads are retried only once the backoff has passed:
+        assertThat(subject.isStale()).isTrue();
+        assertThat(reads.get()).isEqualTo(2);
+
+        ticker.advance(Duration.ofSeconds(1L));
+        subject.acquire().close();
+        subject.acquire().close();
+        assertThat(reads.get()).isEqualTo(3);
+
+        failing.set(false);
+        ticker.advance(Duration.ofSeconds(2L));
+        try ( KeyStoreSnapshot snapshot = subject.acquire() ) {
+            assertThat(snapshot.getLoadTime()).isGreaterThan(loadTime);
+        }
+        assertThat(subject.isStale()).isFalse();
+        assertThat(reads.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldKeepBackingOffOnceStaleSnapshotHasExpired() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean();
+        ManualTicker ticker = new ManualTicker();
+        KeyStoreSnapshotManager subject = newStaleServingSubject(failing, ticker);
+        subject.acquire().close();
+
+        failing.set(true);
+        ticker.advance(Duration.ofMinutes(2L));
+        subject.acquire().close();
+        assertThat(subject.isStale()).isTrue();
+
+        // Past the grace period the snapshot is no longer served:
+        ticker.advance(Duration.ofMinutes(5L));
+        assertThatThrownBy(subject::acquire).isInstanceOf(IOException.class);
+        assertThat(subject.isStale()).isFalse();
+        assertThat(reads.get()).isEqualTo(3);
+
+        // Callers fail with the last failure until the next retry:
+        for (int i = 0; i < 10; i++) {
+            assertThatThrownBy(subject::acquire).isInstanceOf(IOException.class);
+        }
+        assertThat(reads.get()).isEqualTo(3);
+
+        ticker.advance(Duration.ofSeconds(2L));
+        assertThatThrownBy(subject::acquire).isInstanceOf(IOException.class);
+        assertThat(reads.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldReuseKeyStoreWhenContentIsUnchanged() throws Exception {
+        KeyStoreSnapshotManager subject = newSubject(new AtomicBoolean());
+
+        KeyStore keyStore;
+        KeyAliasIndex index;
+        try ( KeyStoreSnapshot snapshot = subject.acquire() ) {
+            keyStore = snapshot.getKeyStore();
+            index = snapshot.getAliasIndex();
+            assertThat(snapshot.isContentReused()).isFalse();
+        }
+
+        assertThat(subject.reload()).isFalse();
+        try ( KeyStoreSnapshot snapshot = subject.acquire() ) {
+            assertThat(snapshot.isContentReused()).isTrue();
+            assertThat(snapshot.getKeyStore()).isSameAs(keyStore);
+            assertThat(snapshot.getAliasIndex()).isSameAs(index);
+        }
+        assertThat(reads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReloadAfterLoadThatStartedBeforeTheChange() throws Exception {
+        KeyStore keyStore = KeyStoreFactory.loadKeyStore(rawKeyStore, KeyStoreFactory.JCE_KEYSTORE_TYPE, keyStorePassword);
+        SecretKeyFactory.createRandomAesKeys(keyStore, SecretKeyFactory.KEY_NAME, 4, 4);
+        byte [] rotatedKeyStore = KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword);
+
+        AtomicReference<byte[]> content = new AtomicReference<>(rawKeyStore);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        ByteArrayResource resource = new ByteArrayResource(rawKeyStore) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                byte [] read = content.get();
+                if ( reads.incrementAndGet() == 1 ) {
+                    reading.countDown();
+                    try {
+                        gate.await(10L, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                return new ByteArrayInputStream(read);
+            }
+        };
+        KeyStoreSnapshotManager subject = new KeyStoreSnapshotManager(
+            resource,
+            KeyStoreFactory.JCE_KEYSTORE_TYPE,
+            keyStorePassword::toCharArray,
+            KEY_NAME_PATTERN);
+
+        // A load reads the key store just before it is rotated:
+        executor.submit(() -> {
+            subject.acquire().close();
+            return null;
+        });
+        reading.await(10L, TimeUnit.SECONDS);
+        content.set(rotatedKeyStore);
+
+        FutureTask<Boolean> reload = new FutureTask<>(subject::reload);
+        Thread reloader = new Thread(reload);
+        reloader.start();
+        while ( reloader.getState() != Thread.State.WAITING ) {
+            Thread.yield();
+        }
+        gate.countDown();
+
+        assertThat(reload.get(10L, TimeUnit.SECONDS)).isTrue();
+        assertThat(reads.get()).isEqualTo(2);
+        try ( KeyStoreSnapshot snapshot = subject.acquire() ) {
+            assertThat(snapshot.getAliasIndex().getLatestVersion(SecretKeyFactory.KEY_NAME)).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void shouldReloadWhileLoadsAreBackingOff() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean();
+        ManualTicker ticker = new ManualTicker();
+        KeyStoreSnapshotManager subject = newStaleServingSubject(failing, ticker);
+        subject.acquire().close();
+
+        failing.set(true);
+        ticker.advance(Duration.ofMinutes(2L));
+        subject.acquire().close();
+        assertThat(reads.get()).isEqualTo(2);
+
+        // A reload is not answered with the stale snapshot:
+        assertThatThrownBy(subject::reload).isInstanceOf(IOException.class);
+        assertThat(reads.get()).isEqualTo(3);
+
+        failing.set(false);
+        assertThat(subject.reload()).isFalse();
+        assertThat(subject.isStale()).isFalse();
+        assertThat(reads.get()).isEqualTo(4);
+    }
+
+    /**
+     * Creates a subject whose snapshots expire after a minute and are served
+     * for up to five minutes past their expiry.
+     */
+    private KeyStoreSnapshotManager newStaleServingSubject(AtomicBoolean failing, ManualTicker ticker) {
+        KeyStoreSnapshotManager subject = newSubject(failing);
+        subject.setRefreshInterval(Duration.ofMinutes(1L));
+        subject.setExpireInterval(Duration.ofMinutes(1L));
+        subject.setStaleGracePeriod(Duration.ofMinutes(5L));
+        subject.setTicker(ticker);
+
+        return subject;
+    }
+
+    private KeyStoreSnapshotManager newSubject(boolean failing) {
+        // Hold the load until every caller has arrived, so that they all miss
+        // while it is in flight:
+        callers = new CountDownLatch(THREADS);
+        return newSubject(new AtomicBoolean(failing));
+    }
+
+    private KeyStoreSnapshotManager newSubject(AtomicBoolean failing) {
+        ByteArrayResource resource = new ByteArrayResource(rawKeyStore) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                reads.incrementAndGet();
+                try {
+                    callers.await(10L, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                if ( failing.get() )
+                    throw new IOException("Key store unavailable");
+
+                return super.getInputStream();
+            }
+        };
+
+        return new KeyStoreSnapshotManager(
+            resource,
+            KeyStoreFactory.JCE_KEYSTORE_TYPE,
+            keyStorePassword::toCharArray,
+            KEY_NAME_PATTERN);
+    }
+
+    private List<Future<Object>> acquireConcurrently(KeyStoreSnapshotManager subject)
+        throws InterruptedException, ExecutionException
+    {
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(() -> {
+                callers.countDown();
+                try ( KeyStoreSnapshot snapshot = subject.acquire() ) {
+                    return snapshot.getAliasIndex();
+                } catch (Exception e) {
+                    return e;
+                }
+            });
+        }
+
+        return executor.invokeAll(tasks);
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.nightsky.keycache;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.springframework.core.io.ByteArrayResource;
+
+/**
+ * Serves whichever key store content is current, counting reads.
+ *
+ * @author Chris
+ */
+public class SwappableResource extends ByteArrayResource {
+
+    private final AtomicReference<byte[]> content;
+
+    private final AtomicInteger reads;
+
+    public SwappableResource(byte[] content) {
+        super(new byte[0], "swappable key store");
+        this.content = new AtomicReference<>(content);
+        this.reads = new AtomicInteger();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        reads.incrementAndGet();
+        return new ByteArrayInputStream(content.get());
+    }
+
+    /**
+     * @param content the key store content served from now on
+     */
+    public void setContent(byte[] content) {
+        this.content.set(content);
+    }
+
+    /**
+     * @return the number of times the content has been read
+     */
+    public int getReads() {
+        return reads.get();
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.nightsky.keycache.benchmark;
+
+import com.nightsky.keycache.JcaVersionedKeyPairCache;
+import com.nightsky.keycache.JcaVersionedSecretKeyCache;
+import com.nightsky.keycache.builder.JcaVersionedKeyPairCacheBuilder;
+import com.nightsky.keycache.builder.JcaVersionedSecretKeyCacheBuilder;
+import com.nightsky.keycache.factory.KeyPairFactory;
+import com.nightsky.keycache.factory.KeyStoreFactory;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import com.nightsky.keycache.factory.exception.KeyStoreCreationException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.Map;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * An in-memory key store populated with versioned keys, used as the
+ * benchmark fixture for the key caches.
+ *
+ * @author Chris
+ */
+public class BenchmarkKeyStore {
+
+    private final String keyStoreType;
+
+    private final String keyStorePassword;
+
+    private final Map<String, Resource> keyPasswords;
+
+    private final byte [] rawKeyStore;
+
+    private BenchmarkKeyStore(String keyStoreType, String keyStorePassword,
+                              Map<String, Resource> keyPasswords, KeyStore keyStore)
+    {
+        this.keyStoreType = keyStoreType;
+        this.keyStorePassword = keyStorePassword;
+        this.keyPasswords = keyPasswords;
+
+        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
+            keyStore.store(os, keyStorePassword.toCharArray());
+            this.rawKeyStore = os.toByteArray();
+        } catch (Exception e) {
+            throw new KeyStoreCreationException(e);
+        }
+    }
+
+    /**
+     * Creates a key store holding versions 1 through <code>count</code> of
+     * the AES key {@link SecretKeyFactory#KEY_NAME}.
+     *
+     * @param keyStoreType The type of key store to create
+     * @param count The number of key versions to create
+     * @return The populated key store
+     */
+    public static BenchmarkKeyStore withSecretKeys(String keyStoreType, int count) {
+        String keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
+        KeyStore keyStore = KeyStoreFactory.createKeyStore(keyStoreType, keyStorePassword);
+        Map<String, Resource> keyPasswords = SecretKeyFactory.createRandomAesKeys(keyStore, count);
+
+        return new BenchmarkKeyStore(keyStoreType, keyStorePassword, keyPasswords, keyStore);
+    }
+
+    /**
+     * Creates a key store holding versions 1 through <code>count</code> of
+     * the RSA key pair {@link KeyPairFactory#KEY_NAME}.
+     *
+     * @param keyStoreType The type of key store to create
+     * @param count The number of key versions to create
+     * @return The populated key store
+     */
+    public static BenchmarkKeyStore withKeyPairs(String keyStoreType, int count) {
+        String keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
+        KeyStore keyStore = KeyStoreFactory.createKeyStore(keyStoreType, keyStorePassword);
+        Map<String, Resource> keyPasswords = KeyPairFactory.createRandomRsaKeyPairs(keyStore, count);
+
+        return new BenchmarkKeyStore(keyStoreType, keyStorePassword, keyPasswords, keyStore);
+    }
+
+    /**
+     * Picks up to <code>sampleSize</code> versions spread evenly between 1
+     * and <code>count</code>.
+     *
+     * @param count The number of key versions in the key store
+     * @param sampleSize The maximum number of versions to pick
+     * @return The picked versions
+     */
+    public static int[] sampleVersions(int count, int sampleSize) {
+        int[] versions = new int[Math.min(count, sampleSize)];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = 1 + (int) ((long) i * count / versions.length);
+        }
+
+        return versions;
+    }
+
+    public JcaVersionedSecretKeyCacheBuilder secretKeyCacheBuilder() {
+        return JcaVersionedSecretKeyCache.builder()
+            .withKeyPasswords(keyPasswords)
+            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
+            .withKeyStoreResource(new ByteArrayResource(rawKeyStore))
+            .withKeyStoreType(keyStoreType);
+    }
+
+    public JcaVersionedKeyPairCacheBuilder keyPairCacheBuilder() {
+        return JcaVersionedKeyPairCache.builder()
+            .withKeyPasswords(keyPasswords)
+            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
+            .withKeyStoreResource(new ByteArrayResource(rawKeyStore))
+            .withKeyStoreType(keyStoreType);
+    }
+
+}
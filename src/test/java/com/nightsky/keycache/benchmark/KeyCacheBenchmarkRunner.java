@@ -0,0 +1,37 @@
+package com.nightsky.keycache.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the key cache benchmarks once per thread count, from a single thread
+ * up to 64 threads. Any JMH command line options are passed through; if a
+ * thread count is given with <code>-t</code>, only that thread count is run.
+ *
+ * @author Chris
+ */
+public class KeyCacheBenchmarkRunner {
+
+    private static final int[] THREAD_COUNTS = { 1, 4, 16, 64 };
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        if ( commandLineOptions.getThreads().hasValue() ) {
+            new Runner(commandLineOptions).run();
+            return;
+        }
+
+        for (int threads : THREAD_COUNTS) {
+            Options options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .threads(threads)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.nightsky.keycache.benchmark;
+
+import com.nightsky.keycache.JcaVersionedSecretKeyCache;
+import com.nightsky.keycache.VersionedSecretKey;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the secret key lookup paths that have to go to the key store: the
+ * first lookup against a newly built cache, and lookups after the cached key
+ * has expired.
+ *
+ * @author Chris
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class KeyCacheMissBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+
+        @Param({"JCEKS", "PKCS12", "BCFKS"})
+        public String keyStoreType;
+
+        @Param({"10", "1000", "10000"})
+        public int aliasCount;
+
+        private BenchmarkKeyStore keyStore;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            keyStore = BenchmarkKeyStore.withSecretKeys(keyStoreType, aliasCount);
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class ColdCache {
+
+        private JcaVersionedSecretKeyCache cache;
+
+        @Setup(Level.Invocation)
+        public void setUp(Fixture fixture) {
+            cache = fixture.keyStore.secretKeyCacheBuilder().build();
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class ExpiringCache {
+
+        private JcaVersionedSecretKeyCache cache;
+
+        @Setup(Level.Trial)
+        public void setUp(Fixture fixture) {
+            // Every entry and key store snapshot expires before the next lookup:
+            cache = fixture.keyStore.secretKeyCacheBuilder()
+                .withExpireAfterWriteDuration(Duration.ofNanos(1L))
+                    .build();
+        }
+
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public VersionedSecretKey coldMiss(ColdCache state) {
+        return state.cache.getKey(SecretKeyFactory.KEY_NAME);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public VersionedSecretKey postExpiryReload(ExpiringCache state) {
+        return state.cache.getKey(SecretKeyFactory.KEY_NAME);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.nightsky.keycache.benchmark;
+
+import com.nightsky.keycache.JcaVersionedKeyPairCache;
+import com.nightsky.keycache.VersionedKeyPair;
+import com.nightsky.keycache.factory.KeyPairFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures cache hits on the key pair lookup paths.
+ *
+ * @author Chris
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyPairCacheBenchmark {
+
+    private static final int SAMPLE_SIZE = 16;
+
+    @Param({"JCEKS", "PKCS12", "BCFKS"})
+    public String keyStoreType;
+
+    @Param({"10", "1000", "10000"})
+    public int aliasCount;
+
+    private JcaVersionedKeyPairCache cache;
+
+    private int[] versions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = BenchmarkKeyStore.withKeyPairs(keyStoreType, aliasCount)
+            .keyPairCacheBuilder()
+            .withExpireAfterWriteDuration(Duration.ofHours(1L))
+                .build();
+
+        // Load the key pairs looked up by the benchmarks so that only hits are measured:
+        versions = BenchmarkKeyStore.sampleVersions(aliasCount, SAMPLE_SIZE);
+        for (int version : versions) {
+            cache.getKeyPair(KeyPairFactory.KEY_NAME, version);
+        }
+        cache.getKeyPair(KeyPairFactory.KEY_NAME);
+    }
+
+    @Benchmark
+    public VersionedKeyPair getLatestKeyPair() {
+        return cache.getKeyPair(KeyPairFactory.KEY_NAME);
+    }
+
+    @Benchmark
+    public VersionedKeyPair getSpecificKeyPair(VersionCursor cursor) {
+        return cache.getKeyPair(KeyPairFactory.KEY_NAME, cursor.next(versions));
+    }
+
+}
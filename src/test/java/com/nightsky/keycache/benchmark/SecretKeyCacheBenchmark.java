@@ -0,0 +1,71 @@
+package com.nightsky.keycache.benchmark;
+
+import com.nightsky.keycache.JcaVersionedSecretKeyCache;
+import com.nightsky.keycache.VersionedSecretKey;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures cache hits on the secret key lookup paths.
+ *
+ * @author Chris
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecretKeyCacheBenchmark {
+
+    private static final int SAMPLE_SIZE = 16;
+
+    @Param({"JCEKS", "PKCS12", "BCFKS"})
+    public String keyStoreType;
+
+    @Param({"10", "1000", "10000"})
+    public int aliasCount;
+
+    private JcaVersionedSecretKeyCache cache;
+
+    private int[] versions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = BenchmarkKeyStore.withSecretKeys(keyStoreType, aliasCount)
+            .secretKeyCacheBuilder()
+            .withExpireAfterWriteDuration(Duration.ofHours(1L))
+                .build();
+
+        // Load the keys looked up by the benchmarks so that only hits are measured:
+        versions = BenchmarkKeyStore.sampleVersions(aliasCount, SAMPLE_SIZE);
+        for (int version : versions) {
+            cache.getKey(SecretKeyFactory.KEY_NAME, version);
+        }
+        cache.getKey(SecretKeyFactory.KEY_NAME);
+    }
+
+    @Benchmark
+    public VersionedSecretKey getLatestKey() {
+        return cache.getKey(SecretKeyFactory.KEY_NAME);
+    }
+
+    @Benchmark
+    public VersionedSecretKey getSpecificKey(VersionCursor cursor) {
+        return cache.getKey(SecretKeyFactory.KEY_NAME, cursor.next(versions));
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.nightsky.keycache.benchmark;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-thread round-robin position over the sampled key versions, so that
+ * concurrent benchmark threads do not contend on a shared counter.
+ *
+ * @author Chris
+ */
+@State(Scope.Thread)
+public class VersionCursor {
+
+    private int position;
+
+    public int next(int[] versions) {
+        position = position + 1 == versions.length ? 0 : position + 1;
+        return versions[position];
+    }
+
+}
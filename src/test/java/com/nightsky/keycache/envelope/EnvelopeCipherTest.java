@@ -0,0 +1,143 @@
+package com.nightsky.keycache.envelope;
+
+import com.nightsky.keycache.DefaultVersionedSecretKey;
+import com.nightsky.keycache.JcaVersionedSecretKeyCache;
+import com.nightsky.keycache.VersionedSecretKey;
+import com.nightsky.keycache.VersionedSecretKeyCache;
+import com.nightsky.keycache.factory.SecretKeyCacheFixture;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.lang3.RandomStringUtils;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class EnvelopeCipherTest {
+
+    private JcaVersionedSecretKeyCache keyCache;
+
+    private EnvelopeCipher subject;
+
+    @Before
+    public void setUp() {
+        // Use a key store with a few versions of an AES key:
+        keyCache = SecretKeyCacheFixture.create(3).newCacheBuilder().build();
+        subject = new EnvelopeCipher(keyCache, SecretKeyFactory.KEY_NAME);
+    }
+
+    @Test
+    public void shouldEncryptWithLatestKeyVersion() throws GeneralSecurityException {
+        byte [] plaintext = "secret payload".getBytes(StandardCharsets.UTF_8);
+
+        byte [] envelope = subject.encrypt(plaintext);
+        assertThat(envelope).hasSize(EnvelopeCipher.getEnvelopeLength(plaintext.length));
+        assertThat(EnvelopeCipher.getKeyVersion(ByteBuffer.wrap(envelope))).isEqualTo(3);
+        assertThat(subject.decrypt(envelope)).isEqualTo(plaintext);
+    }
+
+    @Test
+    public void shouldDecryptDirectBuffers() throws GeneralSecurityException {
+        byte [] plaintext = RandomStringUtils.randomAlphanumeric(4096).getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer input = ByteBuffer.allocateDirect(plaintext.length);
+        input.put(plaintext).flip();
+        ByteBuffer envelope = ByteBuffer.allocateDirect(EnvelopeCipher.getEnvelopeLength(plaintext.length));
+        assertThat(subject.encrypt(input, envelope)).isEqualTo(envelope.capacity());
+        envelope.flip();
+
+        ByteBuffer output = ByteBuffer.allocateDirect(plaintext.length);
+        assertThat(subject.decrypt(envelope, output)).isEqualTo(plaintext.length);
+        output.flip();
+
+        byte [] decrypted = new byte[output.remaining()];
+        output.get(decrypted);
+        assertThat(decrypted).isEqualTo(plaintext);
+    }
+
+    @Test
+    public void shouldRejectTamperedKeyVersion() throws GeneralSecurityException {
+        byte [] envelope = subject.encrypt("secret payload".getBytes(StandardCharsets.UTF_8));
+
+        // Version 2 exists, but the header is authenticated with version 3:
+        ByteBuffer.wrap(envelope).putInt(1, 2);
+        assertThatThrownBy(() -> subject.decrypt(envelope)).isInstanceOf(AEADBadTagException.class);
+    }
+
+    @Test
+    public void shouldRejectMalformedEnvelopes() {
+        assertThatThrownBy(() -> subject.decrypt(new byte[EnvelopeCipher.OVERHEAD - 1]))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("truncated");
+
+        byte [] envelope = new byte[EnvelopeCipher.OVERHEAD + 4];
+        envelope[0] = EnvelopeCipher.FORMAT + 1;
+        assertThatThrownBy(() -> EnvelopeCipher.getKeyVersion(ByteBuffer.wrap(envelope)))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("format");
+    }
+
+    @Test
+    public void shouldLeaveNoPartialEnvelopeWhenEncryptionFails() {
+        // A key of an invalid length for AES:
+        VersionedSecretKey invalidKey = new DefaultVersionedSecretKey(new SecretKeySpec(new byte[7], "AES"), 1);
+        EnvelopeCipher failingSubject = new EnvelopeCipher(new VersionedSecretKeyCache() {
+            @Override
+            public VersionedSecretKey getKey(String keyName) {
+                return invalidKey;
+            }
+
+            @Override
+            public VersionedSecretKey getKey(String keyName, Integer keyVersion) {
+                return invalidKey;
+            }
+        }, SecretKeyFactory.KEY_NAME);
+
+        ByteBuffer plaintext = ByteBuffer.wrap("secret payload".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer envelope = ByteBuffer.allocate(EnvelopeCipher.getEnvelopeLength(plaintext.remaining()) + 1);
+        envelope.put((byte) 1);
+
+        assertThatThrownBy(() -> failingSubject.encrypt(plaintext, envelope))
+            .isInstanceOf(GeneralSecurityException.class);
+        assertThat(envelope.position()).isEqualTo(1);
+        assertThat(plaintext.position()).isZero();
+        assertThat(Arrays.copyOfRange(envelope.array(), 1, envelope.capacity()))
+            .containsOnly((byte) 0);
+    }
+
+    @Test
+    public void shouldLeaveNoPartialPlaintextWhenDecryptionFails() throws GeneralSecurityException {
+        byte [] tampered = subject.encrypt("secret payload".getBytes(StandardCharsets.UTF_8));
+        tampered[tampered.length - 1] ^= 1;
+
+        ByteBuffer envelope = ByteBuffer.allocate(tampered.length + 1);
+        envelope.put((byte) 1).put(tampered).position(1);
+        ByteBuffer plaintext = ByteBuffer.allocate(tampered.length - EnvelopeCipher.OVERHEAD + 1);
+        Arrays.fill(plaintext.array(), (byte) 1);
+        plaintext.position(1);
+
+        assertThatThrownBy(() -> subject.decrypt(envelope, plaintext))
+            .isInstanceOf(AEADBadTagException.class);
+        assertThat(envelope.position()).isEqualTo(1);
+        assertThat(plaintext.position()).isEqualTo(1);
+        assertThat(plaintext.get(0)).isEqualTo((byte) 1);
+        assertThat(Arrays.copyOfRange(plaintext.array(), 1, plaintext.capacity()))
+            .containsOnly((byte) 0);
+
+        // The envelope can still be read from where it was:
+        assertThat(EnvelopeCipher.getKeyVersion(envelope)).isEqualTo(3);
+    }
+
+}
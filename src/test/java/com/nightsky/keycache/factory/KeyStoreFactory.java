@@ -1,58 +1,134 @@
-package com.nightsky.keycache.factory;
-
-import com.nightsky.keycache.factory.exception.KeyStoreCreationException;
-import java.security.KeyStore;
-import java.security.Security;
-import org.bouncycastle.jcajce.provider.BouncyCastleFipsProvider;
-
-/**
- *
- * @author Chris
- */
-public class KeyStoreFactory {
-
-    public static final String JCE_KEYSTORE_TYPE = "JCEKS";
-
-    public static final String BOUNCY_CASTLE_FIPS_KEYSTORE_TYPE = "BCFKS";
-
-    /**
-     * Creates and loads a new <code>KeyStore</code>.
-     *
-     * @param keyStorePassword The password used to secure the key store
-     * @return A newly created and loaded <code>KeyStore</code>
-     */
-    public static KeyStore createJceKeyStore(String keyStorePassword) {
-        try {
-            KeyStore keyStore = KeyStore.getInstance(JCE_KEYSTORE_TYPE);
-            keyStore.load(null, keyStorePassword.toCharArray());
-
-            return keyStore;
-        } catch (Exception e) {
-            throw new KeyStoreCreationException(e);
-        }
-    }
-
-    /**
-     * Uses the Bouncy Castle FIPS library to create and load a new
-     * FIPS-compliant <code>KeyStore</code>.
-     *
-     * @param keyStorePassword The password used to secure the key store
-     * @return A newly created and loaded <code>KeyStore</code>
-     */
-    public static KeyStore createBouncyCastleFipsKeyStore(String keyStorePassword) {
-        try {
-            // Add the Bouncy Castle FIPS security provider, if needed:
-            if ( Security.getProvider(BouncyCastleFipsProvider.PROVIDER_NAME) == null ) {
-                Security.addProvider(new BouncyCastleFipsProvider());
-            }
-
-            KeyStore keyStore = KeyStore.getInstance(BOUNCY_CASTLE_FIPS_KEYSTORE_TYPE);
-            keyStore.load(null, keyStorePassword.toCharArray());
-
-            return keyStore;
-        } catch (Exception e) {
-            throw new KeyStoreCreationException(e);
-        }
-    }
-
-}
+package com.nightsky.keycache.factory;
+
+import com.nightsky.keycache.factory.exception.KeyStoreCreationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.KeyStore;
+import java.security.Security;
+import org.bouncycastle.jcajce.provider.BouncyCastleFipsProvider;
+
+/**
+ *
+ * @author Chris
+ */
+public class KeyStoreFactory {
+
+    public static final String JCE_KEYSTORE_TYPE = "JCEKS";
+
+    public static final String PKCS12_KEYSTORE_TYPE = "PKCS12";
+
+    public static final String BOUNCY_CASTLE_FIPS_KEYSTORE_TYPE = "BCFKS";
+
+    /**
+     * Creates and loads a new <code>KeyStore</code> of the given type.
+     *
+     * @param keyStoreType One of the key store types supported by this factory
+     * @param keyStorePassword The password used to secure the key store
+     * @return A newly created and loaded <code>KeyStore</code>
+     */
+    public static KeyStore createKeyStore(String keyStoreType, String keyStorePassword) {
+        switch ( keyStoreType ) {
+            case JCE_KEYSTORE_TYPE:
+                return createJceKeyStore(keyStorePassword);
+            case PKCS12_KEYSTORE_TYPE:
+                return createPkcs12KeyStore(keyStorePassword);
+            case BOUNCY_CASTLE_FIPS_KEYSTORE_TYPE:
+                return createBouncyCastleFipsKeyStore(keyStorePassword);
+            default:
+                throw new KeyStoreCreationException("Unsupported key store type: " + keyStoreType);
+        }
+    }
+
+    /**
+     * Creates and loads a new <code>KeyStore</code>.
+     *
+     * @param keyStorePassword The password used to secure the key store
+     * @return A newly created and loaded <code>KeyStore</code>
+     */
+    public static KeyStore createJceKeyStore(String keyStorePassword) {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(JCE_KEYSTORE_TYPE);
+            keyStore.load(null, keyStorePassword.toCharArray());
+
+            return keyStore;
+        } catch (Exception e) {
+            throw new KeyStoreCreationException(e);
+        }
+    }
+
+    /**
+     * Creates and loads a new PKCS #12 <code>KeyStore</code>.
+     *
+     * @param keyStorePassword The password used to secure the key store
+     * @return A newly created and loaded <code>KeyStore</code>
+     */
+    public static KeyStore createPkcs12KeyStore(String keyStorePassword) {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(PKCS12_KEYSTORE_TYPE);
+            keyStore.load(null, keyStorePassword.toCharArray());
+
+            return keyStore;
+        } catch (Exception e) {
+            throw new KeyStoreCreationException(e);
+        }
+    }
+
+    /**
+     * Uses the Bouncy Castle FIPS library to create and load a new
+     * FIPS-compliant <code>KeyStore</code>.
+     *
+     * @param keyStorePassword The password used to secure the key store
+     * @return A newly created and loaded <code>KeyStore</code>
+     */
+    public static KeyStore createBouncyCastleFipsKeyStore(String keyStorePassword) {
+        try {
+            // Add the Bouncy Castle FIPS security provider, if needed:
+            if ( Security.getProvider(BouncyCastleFipsProvider.PROVIDER_NAME) == null ) {
+                Security.addProvider(new BouncyCastleFipsProvider());
+            }
+
+            KeyStore keyStore = KeyStore.getInstance(BOUNCY_CASTLE_FIPS_KEYSTORE_TYPE);
+            keyStore.load(null, keyStorePassword.toCharArray());
+
+            return keyStore;
+        } catch (Exception e) {
+            throw new KeyStoreCreationException(e);
+        }
+    }
+
+    /**
+     * Saves a key store into memory.
+     *
+     * @param keyStore The loaded key store
+     * @param keyStorePassword The password used to secure the key store
+     * @return The saved key store
+     */
+    public static byte[] storeKeyStore(KeyStore keyStore, String keyStorePassword) {
+        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
+            keyStore.store(os, keyStorePassword.toCharArray());
+            return os.toByteArray();
+        } catch (Exception e) {
+            throw new KeyStoreCreationException(e);
+        }
+    }
+
+    /**
+     * Loads a copy of a key store that was saved into memory.
+     *
+     * @param rawKeyStore The saved key store
+     * @param keyStoreType The type of the key store
+     * @param keyStorePassword The password used to secure the key store
+     * @return A newly loaded <code>KeyStore</code>
+     */
+    public static KeyStore loadKeyStore(byte[] rawKeyStore, String keyStoreType, String keyStorePassword) {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(keyStoreType);
+            keyStore.load(new ByteArrayInputStream(rawKeyStore), keyStorePassword.toCharArray());
+
+            return keyStore;
+        } catch (Exception e) {
+            throw new KeyStoreCreationException(e);
+        }
+    }
+
+}
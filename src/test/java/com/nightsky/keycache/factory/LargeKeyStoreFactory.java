@@ -0,0 +1,49 @@
+package com.nightsky.keycache.factory;
+
+import com.nightsky.keycache.factory.exception.KeyStoreCreationException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+
+/**
+ * Fills key stores with tens of thousands of versioned aliases. Storing a
+ * password protected key takes 100 to 200 milliseconds per entry with the
+ * default key derivation settings of the JDK, so the filler aliases are
+ * trusted certificate entries, which are stored without protection. They
+ * match the default key name pattern, so they are indexed and scanned just
+ * like keys.
+ *
+ * @author Chris
+ */
+public class LargeKeyStoreFactory {
+
+    public static final String FILLER_KEY_NAME = "filler-key";
+
+    public static final int FILLER_VERSIONS = 10;
+
+    /**
+     * Adds filler aliases named <code>filler-key-N-vM</code>, with
+     * {@link #FILLER_VERSIONS} versions per key name.
+     *
+     * @param keyStore The loaded key store to fill
+     * @param aliasCount The number of aliases to add
+     */
+    public static void addFillerAliases(KeyStore keyStore, int aliasCount) {
+        try {
+            KeyPairGenerator kg = KeyPairGenerator.getInstance("RSA");
+            kg.initialize(1024);
+            KeyPair keyPair = kg.genKeyPair();
+            Certificate certificate = KeyPairFactory.createSelfSignedCertificate(keyPair, 1L);
+
+            for (int i = 0; i < aliasCount; i++) {
+                String alias = String.format("%s-%d-v%d",
+                    FILLER_KEY_NAME, i / FILLER_VERSIONS, 1 + i % FILLER_VERSIONS);
+                keyStore.setCertificateEntry(alias, certificate);
+            }
+        } catch (Exception e) {
+            throw new KeyStoreCreationException(e);
+        }
+    }
+
+}
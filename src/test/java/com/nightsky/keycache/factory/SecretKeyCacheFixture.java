@@ -0,0 +1,110 @@
+package com.nightsky.keycache.factory;
+
+import com.nightsky.keycache.JcaVersionedSecretKeyCache;
+import com.nightsky.keycache.builder.JcaVersionedSecretKeyCacheBuilder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Map;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * A key store saved into memory, holding a few versions of a random AES key
+ * named {@link SecretKeyFactory#KEY_NAME}, along with its passwords.
+ *
+ * @author Chris
+ */
+public class SecretKeyCacheFixture {
+
+    private final String keyStoreType;
+
+    private final String keyStorePassword;
+
+    private final Map<String, Resource> keyPasswords;
+
+    private final byte [] rawKeyStore;
+
+    private SecretKeyCacheFixture(
+        String keyStoreType, String keyStorePassword, Map<String, Resource> keyPasswords, byte[] rawKeyStore)
+    {
+        this.keyStoreType = keyStoreType;
+        this.keyStorePassword = keyStorePassword;
+        this.keyPasswords = keyPasswords;
+        this.rawKeyStore = rawKeyStore;
+    }
+
+    /**
+     * Creates a JCEKS key store holding versions 1 to <code>count</code> of
+     * the key.
+     *
+     * @param count The number of versions to create
+     * @return The fixture
+     */
+    public static SecretKeyCacheFixture create(int count) {
+        return create(KeyStoreFactory.JCE_KEYSTORE_TYPE, count);
+    }
+
+    /**
+     * Creates a key store of the given type holding versions 1 to
+     * <code>count</code> of the key.
+     *
+     * @param keyStoreType One of the key store types supported by
+     *        {@link KeyStoreFactory}
+     * @param count The number of versions to create
+     * @return The fixture
+     */
+    public static SecretKeyCacheFixture create(String keyStoreType, int count) {
+        String keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
+        KeyStore keyStore = KeyStoreFactory.createKeyStore(keyStoreType, keyStorePassword);
+        Map<String, Resource> keyPasswords = SecretKeyFactory.createRandomAesKeys(keyStore, count);
+
+        return new SecretKeyCacheFixture(
+            keyStoreType, keyStorePassword, keyPasswords, KeyStoreFactory.storeKeyStore(keyStore, keyStorePassword));
+    }
+
+    /**
+     * @return a builder of a cache over the saved key store, with keys that
+     *         expire after an hour
+     */
+    public JcaVersionedSecretKeyCacheBuilder newCacheBuilder() {
+        return JcaVersionedSecretKeyCache.builder()
+            .withKeyPasswords(keyPasswords)
+            .withKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)))
+            .withKeyStoreResource(new ByteArrayResource(rawKeyStore))
+            .withKeyStoreType(keyStoreType)
+            .withExpireAfterWriteDuration(Duration.ofMinutes(60L));
+    }
+
+    /**
+     * @return a loaded copy of the saved key store, to derive other key
+     *         stores from
+     */
+    public KeyStore loadKeyStore() {
+        return KeyStoreFactory.loadKeyStore(rawKeyStore, keyStoreType, keyStorePassword);
+    }
+
+    /**
+     * @return the keyStorePassword
+     */
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    /**
+     * @return the passwords of the keys, by alias; keys added to derived key
+     *         stores must add their passwords here
+     */
+    public Map<String, Resource> getKeyPasswords() {
+        return keyPasswords;
+    }
+
+    /**
+     * @return the saved key store
+     */
+    public byte[] getRawKeyStore() {
+        return rawKeyStore;
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.nightsky.keycache.metrics;
+
+import com.nightsky.keycache.JcaVersionedSecretKeyCache;
+import com.nightsky.keycache.VersionedSecretKey;
+import com.nightsky.keycache.factory.SecretKeyCacheFixture;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class MicrometerKeyCacheMetricsTest {
+
+    private MeterRegistry registry;
+
+    private SecretKeyCacheFixture fixture;
+
+    private JcaVersionedSecretKeyCache subject;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        fixture = SecretKeyCacheFixture.create(3);
+        subject = fixture.newCacheBuilder()
+            .withMetrics(new MicrometerKeyCacheMetrics(registry, "test"))
+                .build();
+    }
+
+    @Test
+    public void shouldPublishCacheAndKeyStoreMetrics() {
+        VersionedSecretKey key = subject.getKey(SecretKeyFactory.KEY_NAME);
+        assertThat(key).isNotNull();
+        key = subject.getKey(SecretKeyFactory.KEY_NAME);
+        assertThat(key).isNotNull();
+
+        assertThat(registry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1.0);
+        assertThat(registry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1.0);
+        assertThat(registry.get("keycache.keystore.load").tag("result", "success").timer().count()).isEqualTo(1L);
+        assertThat(registry.get("keycache.keystore.scan").timer().count()).isEqualTo(1L);
+        assertThat(registry.get("keycache.key.decrypt").timer().count()).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldCountLoadFailuresWithoutTaggingKeyNames() {
+        // No passwords are configured for these keys:
+        fixture.getKeyPasswords().remove(SecretKeyFactory.KEY_NAME + "-v2");
+        assertThat(subject.getKey(SecretKeyFactory.KEY_NAME, 4)).isNull();
+        assertThat(subject.getKey(SecretKeyFactory.KEY_NAME, 2)).isNull();
+
+        assertThat(registry.get("keycache.key.load.failures").counter().count()).isEqualTo(2.0);
+        assertThat(registry.find("keycache.key.load.failures").counters()).hasSize(1);
+    }
+
+}
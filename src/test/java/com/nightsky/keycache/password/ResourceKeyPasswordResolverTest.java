@@ -0,0 +1,75 @@
+package com.nightsky.keycache.password;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class ResourceKeyPasswordResolverTest {
+
+    @Test
+    public void shouldResolveAliasThenPatternThenDefaultPassword() throws Exception {
+        Map<String, Resource> patterns = new LinkedHashMap<>();
+        patterns.put("tenant-.*", password("tenant"));
+        patterns.put(".*-v1", password("first"));
+
+        ResourceKeyPasswordResolver subject = new ResourceKeyPasswordResolver(
+            Collections.singletonMap("tenant-a-v1", password("alias")),
+            patterns,
+            password("default"),
+            Duration.ofMinutes(5L));
+
+        assertThat(subject.getKeyPassword("tenant-a-v1")).isEqualTo("alias".toCharArray());
+        assertThat(subject.getKeyPassword("tenant-b-v1")).isEqualTo("tenant".toCharArray());
+        assertThat(subject.getKeyPassword("other-v1")).isEqualTo("first".toCharArray());
+        assertThat(subject.getKeyPassword("other-v2")).isEqualTo("default".toCharArray());
+    }
+
+    @Test
+    public void shouldReadSharedPasswordResourceOnce() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        Resource shared = new ByteArrayResource("shared".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                reads.incrementAndGet();
+                return super.getInputStream();
+            }
+        };
+
+        ResourceKeyPasswordResolver subject = new ResourceKeyPasswordResolver(
+            null, null, shared, Duration.ofMinutes(5L));
+
+        for (int i = 1; i <= 100; i++) {
+            char [] password = subject.getKeyPassword("key-v" + i);
+            assertThat(password).isEqualTo("shared".toCharArray());
+
+            // Callers may clear the password they were given:
+            Arrays.fill(password, '\0');
+        }
+
+        assertThat(reads.get()).isEqualTo(1);
+        assertThat(new ResourceKeyPasswordResolver(null, null, null, Duration.ofMinutes(5L))
+            .getKeyPassword("key-v1")).isNull();
+    }
+
+    private static Resource password(String password) {
+        return new ByteArrayResource(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
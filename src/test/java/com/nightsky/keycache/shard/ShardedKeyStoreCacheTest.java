@@ -0,0 +1,160 @@
+package com.nightsky.keycache.shard;
+
+import com.nightsky.keycache.JcaVersionedKeyStoreCache;
+import com.nightsky.keycache.VersionedKeyPair;
+import com.nightsky.keycache.VersionedSecretKey;
+import com.nightsky.keycache.factory.KeyPairFactory;
+import com.nightsky.keycache.factory.KeyStoreFactory;
+import com.nightsky.keycache.factory.SecretKeyFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.RandomStringUtils;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ *
+ * @author Chris
+ */
+@RunWith(JUnit4.class)
+public class ShardedKeyStoreCacheTest {
+
+    private String keyStorePassword;
+
+    private Map<String, Resource> keyPasswords;
+
+    private Map<String, byte[]> rawKeyStores;
+
+    private AtomicInteger shardsOpened;
+
+    private List<String> shardsClosed;
+
+    private ShardedKeyStoreCache subject;
+
+    @Before
+    public void setUp() throws GeneralSecurityException, IOException {
+        keyStorePassword = RandomStringUtils.randomAlphanumeric(16);
+        keyPasswords = new HashMap<>();
+        rawKeyStores = new HashMap<>();
+
+        // One key store per tenant:
+        KeyStore keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, "tenant1-data", 3));
+        rawKeyStores.put("tenant1", store(keyStore));
+
+        keyStore = KeyStoreFactory.createJceKeyStore(keyStorePassword);
+        keyPasswords.putAll(SecretKeyFactory.createRandomAesKeys(keyStore, "tenant2-data", 2));
+        keyPasswords.putAll(KeyPairFactory.createRandomRsaKeyPairs(keyStore, "tenant2-signing", 2));
+        rawKeyStores.put("tenant2", store(keyStore));
+
+        shardsOpened = new AtomicInteger();
+        shardsClosed = new CopyOnWriteArrayList<>();
+        subject = ShardedKeyStoreCache.builder()
+            .withPatternRoutes(Collections.singletonMap("(tenant\\d+)-.*", "$1"))
+            .withShardFactory(this::openShard)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        subject.close();
+    }
+
+    private byte[] store(KeyStore keyStore) throws GeneralSecurityException, IOException {
+        try ( ByteArrayOutputStream os = new ByteArrayOutputStream() ) {
+            keyStore.store(os, keyStorePassword.toCharArray());
+            return os.toByteArray();
+        }
+    }
+
+    private JcaVersionedKeyStoreCache openShard(String shardId) {
+        shardsOpened.incrementAndGet();
+        JcaVersionedKeyStoreCache shard = new JcaVersionedKeyStoreCache() {
+            @Override
+            public void close() {
+                shardsClosed.add(shardId);
+                super.close();
+            }
+        };
+        shard.setKeyPasswords(keyPasswords);
+        shard.setKeyStorePasswordResource(new ByteArrayResource(keyStorePassword.getBytes(StandardCharsets.UTF_8)));
+        shard.setKeyStoreResource(new ByteArrayResource(rawKeyStores.get(shardId)));
+        shard.setKeyStoreType(KeyStoreFactory.JCE_KEYSTORE_TYPE);
+        shard.setExpireAfterWrite(Duration.ofMinutes(60L));
+        shard.initialize();
+
+        return shard;
+    }
+
+    @Test
+    public void shouldOpenOnlyTheShardsOfRequestedKeys() {
+        VersionedSecretKey key = subject.asSecretKeyCache().getKey("tenant1-data");
+        assertThat(key).isNotNull();
+        assertThat(key.getVersion()).isEqualTo(3);
+        assertThat(subject.asSecretKeyCache().getKey("tenant1-data", 1).getVersion()).isEqualTo(1);
+        assertThat(subject.getOpenShards()).containsOnly("tenant1");
+
+        VersionedKeyPair keyPair = subject.asKeyPairCache().getKeyPair("tenant2-signing");
+        assertThat(keyPair).isNotNull();
+        assertThat(keyPair.getVersion()).isEqualTo(2);
+        assertThat(subject.getOpenShards()).containsOnly("tenant1", "tenant2");
+        assertThat(shardsOpened.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldSplitBatchesAcrossShards() {
+        Map<String, VersionedSecretKey> keys = subject.asSecretKeyCache()
+            .getKeys(Arrays.asList("tenant1-data", "tenant2-data", "unrouted-data"));
+
+        assertThat(keys).containsOnlyKeys("tenant1-data", "tenant2-data");
+        assertThat(keys.get("tenant1-data").getVersion()).isEqualTo(3);
+        assertThat(keys.get("tenant2-data").getVersion()).isEqualTo(2);
+        assertThat(subject.asSecretKeyCache().getKey("unrouted-data")).isNull();
+        assertThat(subject.asSecretKeyCache().containsKey("unrouted-data")).isFalse();
+    }
+
+    @Test
+    public void shouldCloseShardsUsedLeastRecentlyWhenTooManyAreOpen() {
+        ShardedKeyStoreCache boundedSubject = ShardedKeyStoreCache.builder()
+            .withPatternRoutes(Collections.singletonMap("(tenant\\d+)-.*", "$1"))
+            .withShardFactory(this::openShard)
+            .withMaximumShards(1L)
+                .build();
+
+        assertThat(boundedSubject.asSecretKeyCache().getKey("tenant1-data").getVersion()).isEqualTo(3);
+        assertThat(boundedSubject.asSecretKeyCache().getKey("tenant2-data").getVersion()).isEqualTo(2);
+        assertThat(boundedSubject.getOpenShards()).containsOnly("tenant2");
+        assertThat(shardsClosed).containsExactly("tenant1");
+
+        // A closed shard is opened again when it is next used:
+        assertThat(boundedSubject.asSecretKeyCache().getKey("tenant1-data").getVersion()).isEqualTo(3);
+        assertThat(shardsOpened.get()).isEqualTo(3);
+
+        boundedSubject.close();
+        assertThat(shardsClosed).containsExactly("tenant1", "tenant2", "tenant1");
+    }
+
+    @Test
+    public void shouldNotKeepShardsThatFailToOpen() {
+        assertThat(subject.asSecretKeyCache().getKey("tenant9-data")).isNull();
+        assertThat(subject.getOpenShards()).isEmpty();
+    }
+
+}